@@ -0,0 +1,79 @@
+package benchmark;
+
+import indexer.Indexer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading and writing the ARFF index, one whole index per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ArffBenchmark {
+
+	@Param({"2000"})
+	public int docs;
+
+	@Param({"1", "4"})
+	public int threads;
+
+	private SyntheticCorpus corpus;
+	private Indexer indexer;
+	private File arff;
+	private File output;
+
+	@Setup
+	public void setUp() throws IOException {
+		Logger.getRootLogger().setLevel(Level.WARN);
+		corpus = SyntheticCorpus.createTemporary(docs);
+		arff = File.createTempFile("index", ".arff.gz");
+		output = File.createTempFile("output", ".arff.gz");
+
+		indexer = new Indexer();
+		indexer.setMaxThreads(threads);
+		indexer.buildIndex(corpus.getDirectory().getPath(), 0, -1, false);
+		indexer.writeIndex(arff.getPath());
+	}
+
+	@TearDown
+	public void tearDown() {
+		corpus.delete();
+		arff.delete();
+		output.delete();
+	}
+
+	@Benchmark
+	public Indexer readFromARFF() {
+		Indexer result = new Indexer();
+		result.setMaxThreads(threads);
+		result.readFromARFF(arff.getPath());
+		return result;
+	}
+
+	@Benchmark
+	public void buildARFF() {
+		indexer.buildARFF(output.getPath());
+	}
+
+}
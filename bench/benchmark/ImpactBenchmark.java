@@ -0,0 +1,88 @@
+package benchmark;
+
+import indexer.Indexer;
+import indexer.SearchResult;
+import indexer.Tokenizer;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Top 10 search on impact ordered postings with a postings budget per
+ * query, compared with the exhaustive term-at-a-time search (budget -1).
+ * Queries are whole documents like in SearchBenchmark, without a query
+ * cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImpactBenchmark {
+
+	private static final int NUM_QUERIES = 20;
+
+	@Param({"2000", "10000"})
+	public int docs;
+
+	// Postings per query (-1 = exhaustive search, 0 = impact ordered
+	// without a limit)
+	@Param({"-1", "0", "20000", "5000", "1000"})
+	public long budgetPostings;
+
+	private SyntheticCorpus corpus;
+	private Indexer indexer;
+	private String[][] queries = new String[NUM_QUERIES][];
+
+	/**
+	 * Query position of every thread
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+		int next = 0;
+	}
+
+	@Setup
+	public void setUp() throws IOException {
+		Logger.getRootLogger().setLevel(Level.WARN);
+		corpus = SyntheticCorpus.createTemporary(docs);
+		indexer = new Indexer();
+		indexer.setQueryCacheSize(0);
+		indexer.setImpactOrdering(budgetPostings >= 0);
+		indexer.setImpactBudget(Math.max(budgetPostings, 0), 0);
+		indexer.buildIndex(corpus.getDirectory().getPath(), 0, -1, false);
+		for (int i = 0; i < NUM_QUERIES; i++) {
+			queries[i] = new Tokenizer().getTokens(corpus.getDocuments().get(i * docs / NUM_QUERIES).getPath());
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		corpus.delete();
+	}
+
+	@Benchmark
+	public List<SearchResult> search(Cursor cursor) {
+		String[] query = queries[cursor.next];
+		cursor.next = (cursor.next + 1) % NUM_QUERIES;
+		return indexer.search(query, 10);
+	}
+
+}
@@ -0,0 +1,106 @@
+package benchmark;
+
+import indexer.Inverter;
+import indexer.MapOutput;
+import indexer.Parser;
+import indexer.PostingList;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import utils.StemCache;
+
+/**
+ * Map phase (Parser.run for every document) and reduce phase (Inverter.run
+ * for every term) of the indexer, one whole corpus per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IndexingBenchmark {
+
+	@Param({"2000"})
+	public int docs;
+
+	@Param({"1", "4"})
+	public int threads;
+
+	@Param({"false", "true"})
+	public boolean stemming;
+
+	private SyntheticCorpus corpus;
+	private ExecutorService executor;
+	private StemCache stemCache = new StemCache(StemCache.DEFAULT_CAPACITY);
+
+	// Map output of the whole corpus, input of the inverters
+	private MapOutput mapOut;
+
+	@Setup
+	public void setUp() throws Exception {
+		Logger.getRootLogger().setLevel(Level.WARN);
+		corpus = SyntheticCorpus.createTemporary(docs);
+		executor = Executors.newFixedThreadPool(threads);
+		mapOut = parse();
+	}
+
+	@TearDown
+	public void tearDown() {
+		executor.shutdown();
+		corpus.delete();
+	}
+
+	@Benchmark
+	public MapOutput parse() throws Exception {
+		MapOutput out = new MapOutput();
+		List<File> documents = corpus.getDocuments();
+		Future<?>[] futures = new Future<?>[documents.size()];
+		for (int doc = 0; doc < futures.length; doc++) {
+			futures[doc] = executor.submit(new Parser(documents.get(doc), doc, stemming, stemCache, out));
+		}
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		return out;
+	}
+
+	@Benchmark
+	public Map<String, PostingList> invert() throws Exception {
+		Map<String, PostingList> index = new ConcurrentHashMap<String, PostingList>();
+		Future<?>[] futures = new Future<?>[mapOut.getTerms().size()];
+		List<Map<String, PostingList>> partitions = mapOut.getPartitions();
+		int i = 0;
+		for (String term : mapOut.getTerms()) {
+			futures[i++] = executor.submit(new Inverter(partitions, index, term, 0, -1));
+		}
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		return index;
+	}
+
+}
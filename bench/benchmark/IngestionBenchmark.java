@@ -0,0 +1,102 @@
+package benchmark;
+
+import indexer.IndexingPipeline;
+import indexer.MapOutput;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import utils.StemCache;
+
+/**
+ * Map phase of the in-memory indexer (IndexingPipeline) with reader threads
+ * or asynchronous reads, one whole corpus per operation. With a cold cache
+ * the page cache is dropped before every operation, which needs root
+ * (/proc/sys/vm/drop_caches); run with -p cache=warm otherwise.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IngestionBenchmark {
+
+	private static final File DROP_CACHES = new File("/proc/sys/vm/drop_caches");
+
+	@Param({"2000"})
+	public int docs;
+
+	@Param({"threads", "async"})
+	public String reads;
+
+	// Reader threads or reads in flight
+	@Param({"1", "16"})
+	public int concurrency;
+
+	@Param({"warm", "cold"})
+	public String cache;
+
+	private SyntheticCorpus corpus;
+	private StemCache stemCache = new StemCache(StemCache.DEFAULT_CAPACITY);
+
+	@Setup
+	public void setUp() throws Exception {
+		Logger.getRootLogger().setLevel(Level.WARN);
+		corpus = SyntheticCorpus.createTemporary(docs);
+	}
+
+	@Setup(org.openjdk.jmh.annotations.Level.Invocation)
+	public void dropCaches() throws Exception {
+		if (cache.equals("cold")) {
+			if (new ProcessBuilder("sync").start().waitFor() != 0) {
+				throw new IOException("sync failed.");
+			}
+			FileWriter writer = new FileWriter(DROP_CACHES);
+			try {
+				writer.write("3\n");
+			}
+			finally {
+				writer.close();
+			}
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		corpus.delete();
+	}
+
+	@Benchmark
+	public MapOutput ingest() throws Exception {
+		MapOutput out = new MapOutput();
+		boolean async = reads.equals("async");
+		IndexingPipeline pipeline = new IndexingPipeline(async ? 1 : concurrency, async ? concurrency : 0,
+				Runtime.getRuntime().availableProcessors(), false, stemCache, out);
+		List<File> documents = corpus.getDocuments();
+		for (int doc = 0; doc < documents.size(); doc++) {
+			pipeline.add(documents.get(doc), doc);
+		}
+		pipeline.finish();
+		return out;
+	}
+
+}
@@ -0,0 +1,82 @@
+package benchmark;
+
+import indexer.BinaryIndex;
+import indexer.Indexer;
+import indexer.PostingsCursor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decodes every posting list of a memory mapped index, one whole index per
+ * operation. The number of postings is printed in the setup, divide it by
+ * the time per operation for the decode throughput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PostingsBenchmark {
+
+	@Param({"10000"})
+	public int docs;
+
+	private SyntheticCorpus corpus;
+	private File file;
+	private BinaryIndex index;
+
+	@Setup
+	public void setUp() throws IOException {
+		Logger.getRootLogger().setLevel(Level.WARN);
+		corpus = SyntheticCorpus.createTemporary(docs);
+		Indexer indexer = new Indexer();
+		indexer.buildIndex(corpus.getDirectory().getPath(), 0, -1, false);
+		file = File.createTempFile("postings", Indexer.BINARY_EXTENSION);
+		indexer.writeIndex(file.getPath());
+		index = BinaryIndex.open(file.getPath());
+
+		long postings = 0;
+		for (int termId = 0; termId < index.getNumTerms(); termId++) {
+			postings += index.getDf(termId);
+		}
+		System.out.println("Postings: " + postings + ", index size: " + file.length() + " bytes");
+	}
+
+	@TearDown
+	public void tearDown() {
+		file.delete();
+		corpus.delete();
+	}
+
+	@Benchmark
+	public long decode() {
+		long sum = 0;
+		PostingsCursor postings = null;
+		for (int termId = 0; termId < index.getNumTerms(); termId++) {
+			postings = index.getPostings(termId, postings);
+			while (postings.next()) {
+				sum += postings.doc() + postings.tf();
+			}
+		}
+		return sum;
+	}
+
+}
@@ -0,0 +1,100 @@
+package benchmark;
+
+import indexer.Indexer;
+import indexer.SearchResult;
+import indexer.ShardedIndex;
+import indexer.Tokenizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Top 10 search of one query at a time on a sharded index, the shards of
+ * the query are searched by shardThreads threads. Compare the throughput
+ * of 1 and more threads to see how the search scales with the cores.
+ * Queries are whole documents like in SearchBenchmark, without a query
+ * cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShardBenchmark {
+
+	private static final int NUM_QUERIES = 20;
+
+	@Param({"10000"})
+	public int docs;
+
+	@Param({"1", "4", "8"})
+	public int shards;
+
+	@Param({"1", "2", "4"})
+	public int shardThreads;
+
+	private SyntheticCorpus corpus;
+	private File directory;
+	private Indexer indexer;
+	private String[][] queries = new String[NUM_QUERIES][];
+
+	/**
+	 * Query position of every thread
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+		int next = 0;
+	}
+
+	@Setup
+	public void setUp() throws IOException {
+		Logger.getRootLogger().setLevel(Level.WARN);
+		corpus = SyntheticCorpus.createTemporary(docs);
+		directory = File.createTempFile("shards", "");
+		directory.delete();
+		ShardedIndex.create(directory.getPath(), corpus.getDirectory().getPath(), shards, ShardedIndex.PARTITION_HASH,
+				false, 0, -1);
+		indexer = new Indexer();
+		indexer.setQueryCacheSize(0);
+		indexer.setShardThreads(shardThreads);
+		indexer.loadIndex(directory.getPath());
+		for (int i = 0; i < NUM_QUERIES; i++) {
+			queries[i] = new Tokenizer().getTokens(corpus.getDocuments().get(i * docs / NUM_QUERIES).getPath());
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		corpus.delete();
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	@Benchmark
+	public List<SearchResult> search(Cursor cursor) {
+		String[] query = queries[cursor.next];
+		cursor.next = (cursor.next + 1) % NUM_QUERIES;
+		return indexer.search(query, 10);
+	}
+
+}
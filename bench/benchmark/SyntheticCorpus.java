@@ -0,0 +1,177 @@
+package benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates a newsgroup-style collection for the benchmarks.
+ *
+ * The layout is the same as the one of 20_newsgroups: one directory per
+ * group with one file per post. Posts have a mail header (of which only the
+ * subject is indexed), a blank line and a body. The words are drawn from a
+ * Zipf distribution over a generated vocabulary with english suffixes, so
+ * the stemmer has something to do. The same seed gives the same corpus.
+ */
+public class SyntheticCorpus {
+
+	private static final String[] GROUPS = {
+		"alt.atheism", "comp.graphics", "comp.sys.mac.hardware", "misc.forsale",
+		"rec.autos", "rec.motorcycles", "rec.sport.hockey", "sci.crypt",
+		"sci.electronics", "sci.med", "sci.space", "talk.politics.guns",
+		"talk.politics.mideast", "talk.religion.misc"
+	};
+
+	private static final String[] SUFFIXES = {
+		"", "", "", "s", "ing", "ed", "ation", "ness", "ly", "er", "ive", "ful"
+	};
+
+	private static final String CONSONANTS = "bcdfghklmnprstvwz";
+	private static final String VOWELS = "aeiou";
+
+	private static final int VOCABULARY_SIZE = 20000;
+
+	private Random random;
+	private String[] vocabulary;
+	private double[] cumulative;
+
+	private File directory;
+	private List<File> documents = new ArrayList<File>();
+
+	/**
+	 * Creates the corpus in the given directory
+	 *
+	 * @param directory
+	 * @param numDocs - number of posts (spread over the groups)
+	 * @param seed
+	 * @throws IOException
+	 */
+	public SyntheticCorpus(File directory, int numDocs, long seed) throws IOException {
+		this.directory = directory;
+		this.random = new Random(seed);
+		buildVocabulary();
+
+		for (int i = 0; i < numDocs; i++) {
+			String group = GROUPS[i % GROUPS.length];
+			File dir = new File(directory, group);
+			dir.mkdirs();
+			File file = new File(dir, Integer.toString(50000 + i));
+			writePost(file, group);
+			documents.add(file);
+		}
+	}
+
+	/**
+	 * Creates the corpus in a new temporary directory
+	 *
+	 * @param numDocs
+	 * @return
+	 * @throws IOException
+	 */
+	public static SyntheticCorpus createTemporary(int numDocs) throws IOException {
+		File directory = File.createTempFile("corpus", "");
+		directory.delete();
+		directory.mkdirs();
+		return new SyntheticCorpus(directory, numDocs, 42);
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public List<File> getDocuments() {
+		return documents;
+	}
+
+	/**
+	 * Deletes the corpus
+	 */
+	public void delete() {
+		delete(directory);
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private void buildVocabulary() {
+		vocabulary = new String[VOCABULARY_SIZE];
+		cumulative = new double[VOCABULARY_SIZE];
+		double sum = 0;
+		for (int i = 0; i < VOCABULARY_SIZE; i++) {
+			StringBuilder word = new StringBuilder();
+			int syllables = 1 + random.nextInt(3);
+			for (int j = 0; j < syllables; j++) {
+				word.append(CONSONANTS.charAt(random.nextInt(CONSONANTS.length())));
+				word.append(VOWELS.charAt(random.nextInt(VOWELS.length())));
+			}
+			word.append(CONSONANTS.charAt(random.nextInt(CONSONANTS.length())));
+			word.append(SUFFIXES[random.nextInt(SUFFIXES.length)]);
+			vocabulary[i] = word.toString();
+			sum += 1.0 / (i + 1);
+			cumulative[i] = sum;
+		}
+		for (int i = 0; i < VOCABULARY_SIZE; i++) {
+			cumulative[i] /= sum;
+		}
+	}
+
+	private String nextWord() {
+		double p = random.nextDouble();
+		int low = 0;
+		int high = VOCABULARY_SIZE - 1;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (cumulative[mid] < p) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		String word = vocabulary[low];
+		// Some capitalized words like at the start of a sentence
+		if (random.nextInt(12) == 0) {
+			word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+		}
+		return word;
+	}
+
+	private void writePost(File file, String group) throws IOException {
+		BufferedWriter out = new BufferedWriter(new FileWriter(file));
+		try {
+			int numWords = 50 + random.nextInt(400);
+			out.write("Xref: cantaloupe.srv.cs.cmu.edu " + group + ":" + file.getName() + "\n");
+			out.write("Newsgroups: " + group + "\n");
+			out.write("From: " + nextWord() + "@" + nextWord() + ".edu (" + nextWord() + " " + nextWord() + ")\n");
+			out.write("Subject: " + (random.nextBoolean() ? "Re: " : "") + nextWord() + " " + nextWord() + " " + nextWord() + "\n");
+			out.write("Organization: " + nextWord() + " University\n");
+			out.write("Lines: " + (numWords / 10 + 1) + "\n");
+			out.write("\n");
+			for (int i = 0; i < numWords; i++) {
+				out.write(nextWord());
+				if (i % 10 == 9) {
+					out.write(".\n");
+				}
+				else {
+					out.write(random.nextInt(15) == 0 ? ", " : " ");
+				}
+			}
+			out.write("\n");
+		}
+		finally {
+			out.close();
+		}
+	}
+
+}
@@ -0,0 +1,96 @@
+package benchmark;
+
+import indexer.Tokenizer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import utils.StemCache;
+import utils.Stemmer;
+
+/**
+ * Tokenizer and stemmer, one document / word per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TextBenchmark {
+
+	@Param({"1000"})
+	public int docs;
+
+	private SyntheticCorpus corpus;
+	private String[] files;
+	private char[][] words;
+	private int nextFile = 0;
+	private int nextWord = 0;
+
+	private Stemmer stemmer = new Stemmer();
+	private StemCache stemCache = new StemCache(StemCache.DEFAULT_CAPACITY);
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		corpus = SyntheticCorpus.createTemporary(docs);
+		files = new String[docs];
+		List<char[]> tokens = new ArrayList<char[]>();
+		for (int i = 0; i < docs; i++) {
+			files[i] = corpus.getDocuments().get(i).getPath();
+			for (String token : new Tokenizer().getTokens(files[i])) {
+				tokens.add(token.toLowerCase().toCharArray());
+			}
+		}
+		words = tokens.toArray(new char[tokens.size()][]);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		corpus.delete();
+	}
+
+	@Benchmark
+	public String[] getTokens() throws IOException {
+		String file = files[nextFile];
+		nextFile = (nextFile + 1) % files.length;
+		return new Tokenizer().getTokens(file);
+	}
+
+	@Benchmark
+	public int stem() {
+		char[] word = words[nextWord];
+		nextWord = (nextWord + 1) % words.length;
+		stemmer.add(word, word.length);
+		stemmer.stem();
+		return stemmer.getResultLength();
+	}
+
+	@Benchmark
+	public String stemCached() {
+		char[] word = words[nextWord];
+		nextWord = (nextWord + 1) % words.length;
+		String stem = stemCache.get(word, word.length);
+		if (stem == null) {
+			stem = stemCache.stem(word, word.length, stemmer);
+		}
+		return stem;
+	}
+
+}
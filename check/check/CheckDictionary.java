@@ -0,0 +1,227 @@
+package check;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import benchmark.SyntheticCorpus;
+import indexer.BinaryIndex;
+import indexer.BinaryIndexWriter;
+import indexer.Indexer;
+import indexer.PostingList;
+
+/**
+ * Checks the lookups of the front coded term dictionary against a brute
+ * force scan of the sorted terms.
+ *
+ * The dictionaries are a crafted one (terms that are prefixes of each
+ * other, shared prefixes across block boundaries, long and multibyte terms),
+ * small ones around the block size and the one of a synthetic corpus. For
+ * every dictionary getTerm() and getTermId() are checked for every term and
+ * for absent terms, and getTermIdRange() for every prefix of every term
+ * (which includes the first terms of the blocks) and for absent prefixes.
+ */
+public class CheckDictionary {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	// Unsigned byte order of the UTF-8 terms like in the index
+	private static final Comparator<byte[]> BYTE_ORDER = new Comparator<byte[]>() {
+		@Override
+		public int compare(byte[] a, byte[] b) {
+			int n = Math.min(a.length, b.length);
+			for (int i = 0; i < n; i++) {
+				int x = a[i] & 0xff;
+				int y = b[i] & 0xff;
+				if (x != y) {
+					return x - y;
+				}
+			}
+			return a.length - b.length;
+		}
+	};
+
+	private static int failures = 0;
+
+	public static void main(String[] args) throws IOException {
+		check("crafted", craftedTerms());
+		for (int size : new int[] { 1, 15, 16, 17, 33 }) {
+			List<String> terms = new ArrayList<String>();
+			for (int i = 0; i < size; i++) {
+				terms.add("term" + i);
+			}
+			check(size + " terms", terms);
+		}
+
+		File dir = File.createTempFile("checkdictionary", "");
+		dir.delete();
+		dir.mkdirs();
+		SyntheticCorpus corpus = new SyntheticCorpus(new File(dir, "corpus"), 100, 5);
+		File file = new File(dir, "index.idx");
+		try {
+			Indexer indexer = new Indexer();
+			indexer.buildIndex(corpus.getDirectory().getPath(), 0, -1, false);
+			indexer.writeIndex(file.getPath());
+			BinaryIndex index = BinaryIndex.open(file.getPath());
+			List<String> terms = new ArrayList<String>();
+			for (int termId = 0; termId < index.getNumTerms(); termId++) {
+				terms.add(index.getTerm(termId));
+			}
+			check("synthetic corpus", index, terms);
+		}
+		finally {
+			corpus.delete();
+			file.delete();
+			dir.delete();
+		}
+
+		if (failures > 0) {
+			System.out.println("FAILED: " + failures + " wrong lookups");
+			System.exit(1);
+		}
+		System.out.println("OK: all dictionary lookups match the brute force scan");
+	}
+
+	private static List<String> craftedTerms() {
+		TreeSet<String> terms = new TreeSet<String>();
+		String a = "";
+		for (int i = 0; i < 40; i++) {
+			a += "a";
+			terms.add(a);
+		}
+		for (int i = 0; i < 100; i++) {
+			terms.add("ab" + i);
+			terms.add("abc" + (i * 7));
+			terms.add(String.format("t%04d", i * 3));
+		}
+		terms.add("b");
+		terms.add("ba");
+		terms.add("bab");
+		terms.add("babbling");
+		terms.add("babblingly");
+		terms.add("c");
+		terms.add("verylongtermthatislongerthansixteenbytes");
+		terms.add("verylongtermthatislongerthansixteenbytesandmore");
+		terms.add("z");
+		terms.add("zz");
+		terms.add("\u00e9t\u00e9");
+		terms.add("\u00e9t\u00e9s");
+		terms.add("\u00fcber");
+		terms.add("\u65e5\u672c");
+		terms.add("\u65e5\u672c\u8a9e");
+		terms.add("\ud83d\ude00");
+		return new ArrayList<String>(terms);
+	}
+
+	private static void check(String name, List<String> terms) throws IOException {
+		Map<String, PostingList> postings = new HashMap<String, PostingList>();
+		for (String term : terms) {
+			PostingList pList = new PostingList();
+			pList.add(0, 1);
+			postings.put(term, pList);
+		}
+		BinaryIndex index = BinaryIndexWriter.build(postings, Arrays.asList("g/1"), Arrays.asList("g"), false);
+		check(name, index, terms);
+	}
+
+	private static void check(String name, BinaryIndex index, List<String> termList) {
+		byte[][] terms = new byte[termList.size()][];
+		for (int i = 0; i < terms.length; i++) {
+			terms[i] = termList.get(i).getBytes(UTF8);
+		}
+		Arrays.sort(terms, BYTE_ORDER);
+		int before = failures;
+		if (index.getNumTerms() != terms.length) {
+			fail(name + ": " + index.getNumTerms() + " terms instead of " + terms.length);
+			return;
+		}
+
+		TreeSet<String> probes = new TreeSet<String>();
+		probes.add("");
+		probes.add("\u0000");
+		probes.add("\uffff");
+		for (int termId = 0; termId < terms.length; termId++) {
+			String term = new String(terms[termId], UTF8);
+			if (!index.getTerm(termId).equals(term)) {
+				fail(name + ": getTerm(" + termId + ") = " + index.getTerm(termId) + " instead of " + term);
+			}
+			if (index.getTermId(term) != termId) {
+				fail(name + ": getTermId(" + term + ") = " + index.getTermId(term) + " instead of " + termId);
+			}
+			// Every prefix, absent ones are made by appending or incrementing
+			for (int end = 0; end <= term.length(); end = term.offsetByCodePoints(end, 1)) {
+				String prefix = term.substring(0, end);
+				probes.add(prefix);
+				probes.add(prefix + "\u0000");
+				probes.add(prefix + "zz");
+				if (end > 0) {
+					char last = term.charAt(end - 1);
+					if (!Character.isSurrogate(last)) {
+						probes.add(prefix.substring(0, end - 1) + (char) (last + 1));
+						probes.add(prefix.substring(0, end - 1) + (char) (last - 1));
+					}
+				}
+				if (end == term.length()) {
+					break;
+				}
+			}
+		}
+
+		for (String probe : probes) {
+			byte[] key = probe.getBytes(UTF8);
+			// Brute force: terms smaller than the key and terms with the prefix
+			int smaller = 0;
+			int withPrefix = 0;
+			int found = -1;
+			for (int termId = 0; termId < terms.length; termId++) {
+				int cmp = BYTE_ORDER.compare(terms[termId], key);
+				if (cmp < 0) {
+					smaller++;
+				}
+				else if (cmp == 0) {
+					found = termId;
+				}
+				if (startsWith(terms[termId], key)) {
+					withPrefix++;
+				}
+			}
+			if (index.getTermId(probe) != found) {
+				fail(name + ": getTermId(" + probe + ") = " + index.getTermId(probe) + " instead of " + found);
+			}
+			int[] range = index.getTermIdRange(probe);
+			if (range[0] != smaller || range[1] != smaller + withPrefix) {
+				fail(name + ": getTermIdRange(" + probe + ") = [" + range[0] + ", " + range[1] + ") instead of ["
+						+ smaller + ", " + (smaller + withPrefix) + ")");
+			}
+		}
+		System.out.println(name + ": " + terms.length + " terms, " + probes.size() + " lookups"
+				+ (failures > before ? ", " + (failures - before) + " wrong" : ""));
+	}
+
+	private static boolean startsWith(byte[] term, byte[] prefix) {
+		if (term.length < prefix.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (term[i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void fail(String message) {
+		if (failures < 20) {
+			System.out.println(message);
+		}
+		failures++;
+	}
+
+}
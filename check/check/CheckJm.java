@@ -0,0 +1,160 @@
+package check;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import benchmark.SyntheticCorpus;
+import indexer.Indexer;
+import indexer.SearchResult;
+import indexer.Tokenizer;
+
+/**
+ * Checks the rankings of the Jelinek-Mercer model against a reference that
+ * was written before the model became pluggable.
+ *
+ * The synthetic corpus is indexed and every QUERY_STEP-th document is used
+ * as a long query (all its tokens) and as a short one (its first
+ * SHORT_QUERY tokens). Every query is run exhaustively and with MaxScore
+ * pruning. The document ids have to be the same as in the reference, the
+ * scores may differ by rounding.
+ *
+ * Usage: CheckJm reference [-write], -write writes a new reference
+ */
+public class CheckJm {
+
+	private static final int NUM_DOCS = 500;
+	private static final long SEED = 7;
+	private static final int QUERY_STEP = 25;
+	private static final int SHORT_QUERY = 3;
+	private static final int K = 10;
+
+	private static final double TOLERANCE = 1e-9;
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: CheckJm reference [-write]");
+			System.exit(2);
+		}
+		File reference = new File(args[0]);
+		boolean write = args.length > 1 && args[1].equals("-write");
+
+		File dir = File.createTempFile("checkjm", "");
+		dir.delete();
+		dir.mkdirs();
+		SyntheticCorpus corpus = new SyntheticCorpus(new File(dir, "corpus"), NUM_DOCS, SEED);
+		List<String> rankings = new ArrayList<String>();
+		try {
+			String index = new File(dir, "index.idx").getPath();
+			Indexer builder = new Indexer();
+			builder.buildIndex(corpus.getDirectory().getPath(), 0, -1, false);
+			builder.writeIndex(index);
+
+			for (boolean prune : new boolean[] { false, true }) {
+				Indexer indexer = new Indexer();
+				indexer.setScorer("jm");
+				indexer.setPruning(prune);
+				indexer.loadIndex(index);
+				String mode = prune ? "prune" : "exhaustive";
+				int topic = 0;
+				for (int i = 0; i < NUM_DOCS; i += QUERY_STEP) {
+					String[] tokens = new Tokenizer().getTokens(corpus.getDocuments().get(i).getPath());
+					addRanking(rankings, mode, ++topic, indexer.search(tokens, K));
+					String[] shortQuery = Arrays.copyOf(tokens, Math.min(SHORT_QUERY, tokens.length));
+					addRanking(rankings, mode, ++topic, indexer.search(shortQuery, K));
+				}
+			}
+		}
+		finally {
+			corpus.delete();
+			new File(dir, "index.idx").delete();
+			dir.delete();
+		}
+
+		if (write) {
+			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(reference), "UTF-8"));
+			try {
+				out.write("# JM rankings of the synthetic corpus (" + NUM_DOCS + " documents, seed " + SEED + "), k = "
+						+ K + "\n");
+				out.write("# mode topic rank docId score\n");
+				for (String line : rankings) {
+					out.write(line + "\n");
+				}
+			}
+			finally {
+				out.close();
+			}
+			System.out.println("Wrote " + rankings.size() + " results to " + reference);
+			return;
+		}
+
+		List<String> expected = readReference(reference);
+		int failures = 0;
+		if (expected.size() != rankings.size()) {
+			System.out.println("Expected " + expected.size() + " results, got " + rankings.size());
+			failures++;
+		}
+		for (int i = 0; i < Math.min(expected.size(), rankings.size()); i++) {
+			if (!matches(expected.get(i), rankings.get(i))) {
+				System.out.println("Expected: " + expected.get(i));
+				System.out.println("Got:      " + rankings.get(i));
+				failures++;
+			}
+		}
+		if (failures > 0) {
+			System.out.println("FAILED: " + failures + " differences to " + reference);
+			System.exit(1);
+		}
+		System.out.println("OK: " + rankings.size() + " results match " + reference);
+	}
+
+	private static void addRanking(List<String> rankings, String mode, int topic, List<SearchResult> result) {
+		for (int rank = 0; rank < result.size(); rank++) {
+			rankings.add(mode + " " + topic + " " + (rank + 1) + " " + result.get(rank).getDocId() + " "
+					+ result.get(rank).getScore());
+		}
+	}
+
+	/**
+	 * Same mode, topic, rank and document, the scores may differ by TOLERANCE
+	 * (relative to larger scores)
+	 */
+	private static boolean matches(String expected, String actual) {
+		String[] a = expected.split(" ");
+		String[] b = actual.split(" ");
+		for (int i = 0; i < 4; i++) {
+			if (!a[i].equals(b[i])) {
+				return false;
+			}
+		}
+		double x = Double.parseDouble(a[4]);
+		double y = Double.parseDouble(b[4]);
+		return Math.abs(x - y) <= TOLERANCE * Math.max(1, Math.abs(x));
+	}
+
+	private static List<String> readReference(File reference) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(reference), "UTF-8"));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (!line.isEmpty() && !line.startsWith("#")) {
+					lines.add(line);
+				}
+			}
+		}
+		finally {
+			in.close();
+		}
+		return lines;
+	}
+
+}
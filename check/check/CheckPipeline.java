@@ -0,0 +1,105 @@
+package check;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import benchmark.SyntheticCorpus;
+import indexer.Indexer;
+
+/**
+ * Checks that the indexing pipeline builds the same image with every number
+ * of reader and parser threads, with asynchronous reads and in blocks
+ * (SPIMI).
+ *
+ * The corpus is a synthetic one plus an empty file (a read of 0 bytes) and
+ * a file with a header but no indexed text. Every configuration has to
+ * parse all documents and write an image that is byte-identical to the one
+ * of a single reader and a single parser.
+ */
+public class CheckPipeline {
+
+	private static final int NUM_DOCS = 400;
+	private static final long SEED = 3;
+	private static final long MEMORY_BUDGET = 256 * 1024;
+
+	private static int failures = 0;
+
+	public static void main(String[] args) throws IOException {
+		File dir = File.createTempFile("checkpipeline", "");
+		dir.delete();
+		dir.mkdirs();
+		SyntheticCorpus corpus = new SyntheticCorpus(new File(dir, "corpus"), NUM_DOCS, SEED);
+		try {
+			File group = corpus.getDocuments().get(0).getParentFile();
+			new FileOutputStream(new File(group, "empty")).close();
+			FileWriter out = new FileWriter(new File(group, "header"));
+			try {
+				out.write("From: nobody@nowhere.edu\nOrganization: Nowhere\nLines: 0\n\n");
+			}
+			finally {
+				out.close();
+			}
+			int numFiles = NUM_DOCS + 2;
+
+			for (boolean stemming : new boolean[] { false, true }) {
+				String name = stemming ? "stemming" : "plain";
+				byte[] reference = build(dir, corpus, stemming, 1, 0, 1, 0, numFiles);
+				// readers, async reads, parsers, memory budget
+				int[][] configurations = {
+					{ 4, 0, 4, 0 },
+					{ 1, 0, 4, 0 },
+					{ 4, 0, 1, 0 },
+					{ 1, 1, 1, 0 },
+					{ 1, 1, 4, 0 },
+					{ 1, 16, 4, 0 },
+					{ 4, 0, 4, 1 },
+					{ 1, 16, 4, 1 },
+				};
+				for (int[] c : configurations) {
+					String configuration = name + ", " + c[0] + " readers, " + c[1] + " async reads, " + c[2]
+							+ " parsers" + (c[3] > 0 ? ", blocks of " + MEMORY_BUDGET + " bytes" : "");
+					byte[] image = build(dir, corpus, stemming, c[0], c[1], c[2], c[3] * MEMORY_BUDGET, numFiles);
+					if (!Arrays.equals(reference, image)) {
+						System.out.println("Different image: " + configuration);
+						failures++;
+					}
+				}
+			}
+		}
+		finally {
+			corpus.delete();
+			dir.delete();
+		}
+		if (failures > 0) {
+			System.out.println("FAILED: " + failures + " configurations");
+			System.exit(1);
+		}
+		System.out.println("OK: all pipeline configurations build the same image");
+	}
+
+	private static byte[] build(File dir, SyntheticCorpus corpus, boolean stemming, int readers, int asyncReads,
+			int parsers, long memoryBudget, int numFiles) throws IOException {
+		File file = new File(dir, "index.idx");
+		Indexer indexer = new Indexer();
+		indexer.setReadThreads(readers);
+		indexer.setAsyncReads(asyncReads);
+		indexer.setMaxThreads(parsers);
+		indexer.setMemoryBudget(memoryBudget);
+		indexer.buildIndex(corpus.getDirectory().getPath(), 0, -1, stemming);
+		indexer.writeIndex(file.getPath());
+		if (indexer.getMetrics().getDocumentsIndexed() != numFiles) {
+			System.out.println("Parsed " + indexer.getMetrics().getDocumentsIndexed() + " of " + numFiles
+					+ " documents with " + readers + " readers, " + asyncReads + " async reads, " + parsers
+					+ " parsers, memory budget " + memoryBudget);
+			failures++;
+		}
+		byte[] image = Files.readAllBytes(file.toPath());
+		file.delete();
+		return image;
+	}
+
+}
@@ -0,0 +1,186 @@
+package check;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import benchmark.SyntheticCorpus;
+import indexer.Indexer;
+import indexer.SearchResult;
+import indexer.SegmentedIndex;
+import indexer.Tokenizer;
+
+/**
+ * Checks incremental updates against a full rebuild.
+ *
+ * A synthetic corpus is indexed into segments and then changed in ROUNDS
+ * rounds: files are modified, deleted and added (among them an empty file
+ * and one with a header but no indexed text), and every round is followed
+ * by an update, so segments get deleted documents and are merged in the
+ * background. Afterwards the merged image of the segments has to be the
+ * same as the index of the final corpus, and queries on the segments have
+ * to rank like queries on that index.
+ */
+public class CheckSegments {
+
+	private static final int NUM_DOCS = 300;
+	private static final long SEED = 11;
+	private static final int ROUNDS = 12;
+	private static final int MODIFIED = 4;
+	private static final int DELETED = 3;
+	private static final int ADDED = 5;
+	private static final int NUM_QUERIES = 20;
+	private static final int K = 10;
+
+	private static final double TOLERANCE = 1e-9;
+
+	public static void main(String[] args) throws IOException {
+		File dir = File.createTempFile("checksegments", "");
+		dir.delete();
+		dir.mkdirs();
+		int failures = 0;
+		try {
+			File collection = new File(dir, "corpus");
+			new SyntheticCorpus(collection, NUM_DOCS, SEED);
+			String segments = new File(dir, "segments").getPath();
+
+			SegmentedIndex index = SegmentedIndex.create(segments, false, 0, -1);
+			index.update(collection.getPath());
+			Random random = new Random(SEED);
+			for (int round = 1; round <= ROUNDS; round++) {
+				change(collection, round, random);
+				index.update(collection.getPath());
+			}
+			// Waits for the merges
+			index.close();
+
+			// Full rebuild of the final corpus
+			String full = new File(dir, "full.idx").getPath();
+			Indexer builder = new Indexer();
+			builder.buildIndex(collection.getPath(), 0, -1, false);
+			builder.writeIndex(full);
+
+			String merged = new File(dir, "merged.idx").getPath();
+			SegmentedIndex.open(segments).toBinaryIndex().writeTo(merged);
+			if (!Arrays.equals(Files.readAllBytes(new File(full).toPath()),
+					Files.readAllBytes(new File(merged).toPath()))) {
+				System.out.println("The merged segments differ from the full index.");
+				failures++;
+			}
+
+			Indexer expected = new Indexer();
+			expected.loadIndex(full);
+			Indexer actual = new Indexer();
+			actual.loadIndex(segments);
+			List<File> files = new ArrayList<File>();
+			listFiles(collection, files);
+			Collections.sort(files);
+			for (int i = 0; i < NUM_QUERIES; i++) {
+				File query = files.get(i * files.size() / NUM_QUERIES);
+				String[] tokens = new Tokenizer().getTokens(query.getPath());
+				if (!matches(expected.search(tokens, K), actual.search(tokens, K))) {
+					System.out.println("Different ranking for the query " + query);
+					failures++;
+				}
+			}
+		}
+		finally {
+			delete(dir);
+		}
+		if (failures > 0) {
+			System.out.println("FAILED: " + failures + " differences between the segments and a full rebuild");
+			System.exit(1);
+		}
+		System.out.println("OK: segments after " + ROUNDS + " updates match a full rebuild");
+	}
+
+	/**
+	 * Modifies, deletes and adds files, the modification times are set
+	 * explicitly so changes within the file system granularity are seen
+	 */
+	private static void change(File collection, int round, Random random) throws IOException {
+		List<File> files = new ArrayList<File>();
+		listFiles(collection, files);
+		Collections.sort(files);
+		Collections.shuffle(files, random);
+		long time = 1800000000000L + round * 1000L;
+		int next = 0;
+		for (int i = 0; i < MODIFIED; i++) {
+			File file = files.get(next++);
+			FileWriter out = new FileWriter(file, true);
+			try {
+				out.write("extra words round" + round + " zebra quantum\n");
+			}
+			finally {
+				out.close();
+			}
+			file.setLastModified(time);
+		}
+		for (int i = 0; i < DELETED; i++) {
+			files.get(next++).delete();
+		}
+		for (int i = 0; i < ADDED; i++) {
+			File file = files.get(next++);
+			File copy = new File(file.getParentFile(), "9" + round + file.getName());
+			Files.copy(file.toPath(), copy.toPath());
+		}
+		if (round == 2) {
+			new FileOutputStream(new File(files.get(0).getParentFile(), "empty")).close();
+			FileWriter out = new FileWriter(new File(files.get(0).getParentFile(), "header"));
+			try {
+				out.write("From: nobody@nowhere.edu\nOrganization: Nowhere\nLines: 0\n\n");
+			}
+			finally {
+				out.close();
+			}
+		}
+	}
+
+	/**
+	 * Same documents in the same order, the scores may differ by TOLERANCE
+	 */
+	private static boolean matches(List<SearchResult> expected, List<SearchResult> actual) {
+		if (expected.size() != actual.size()) {
+			return false;
+		}
+		for (int i = 0; i < expected.size(); i++) {
+			double x = expected.get(i).getScore();
+			double y = actual.get(i).getScore();
+			if (!expected.get(i).getDocId().equals(actual.get(i).getDocId())
+					|| Math.abs(x - y) > TOLERANCE * Math.max(1, Math.abs(x))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void listFiles(File file, List<File> files) {
+		if (!file.isDirectory()) {
+			files.add(file);
+		}
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				listFiles(child, files);
+			}
+		}
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+}
@@ -34,10 +34,16 @@ talk.politics.mideast/76261 alt.atheism/53358 sci.electronics/54340 rec.motorcyc
 
 mkdir -p /tmp/output
 
+# All topics are answered by one JVM, so the index is only loaded once
+batch_file=$(mktemp)
+
 i=1;
 for topic in $topics;
     do
         out_file="/tmp/output/"$plist_name"_topic"$i"_groupA.txt"
-        eval "java -jar \"$JAR_PATH/indexer.jar\" -i \"$index_arff\" -t $i -lsize $plist_name -q \"$collection/$topic\" -searchout \"$out_file\"";
+        printf "%d\t%s\t%s\n" $i "$collection/$topic" "$out_file" >> "$batch_file";
         ((i++));
 done;
+
+java -jar "$JAR_PATH/indexer.jar" -i "$index_arff" -lsize $plist_name -batch "$batch_file" -threads $(nproc);
+rm -f "$batch_file";
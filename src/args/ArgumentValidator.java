@@ -10,6 +10,12 @@ import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
 
+import indexer.QueryCache;
+import indexer.Scorer;
+import indexer.SegmentedIndex;
+import indexer.ShardedIndex;
+import utils.StemCache;
+
 public class ArgumentValidator {
 	
 	public static String SIZE_NONE = "none";
@@ -42,6 +48,69 @@ public class ArgumentValidator {
 	@Option (name = "-stemming", required = false)
 	private boolean stemming = false;	
 	
+	@Option (name = "-prune", required = false)
+	private boolean pruning = false;
+	
+	@Option (name = "-impact", required = false)
+	private boolean impact = false;
+	
+	@Option (name = "-budgetpostings", required = false)
+	private long budgetPostings = 0;
+	
+	@Option (name = "-budgetms", required = false)
+	private long budgetMs = 0;
+	
+	@Option (name = "-impactcheck", required = false)
+	private boolean impactCheck = false;
+	
+	@Option (name = "-batch", required = false)
+	private String batch = null;
+	
+	@Option (name = "-threads", required = false)
+	private int threads = 1;
+	
+	@Option (name = "-update", required = false)
+	private boolean update = false;
+	
+	@Option (name = "-membudget", required = false)
+	private int memoryBudget = 0;
+	
+	@Option (name = "-stemcache", required = false)
+	private int stemCacheSize = StemCache.DEFAULT_CAPACITY;
+	
+	@Option (name = "-readers", required = false)
+	private int readers = 1;
+	
+	@Option (name = "-asyncreads", required = false)
+	private int asyncReads = 0;
+	
+	@Option (name = "-scorer", required = false)
+	private String scorer = Scorer.DEFAULT;
+	
+	@Option (name = "-querycache", required = false)
+	private int queryCacheSize = QueryCache.DEFAULT_CAPACITY;
+	
+	@Option (name = "-shards", required = false)
+	private int shards = 0;
+	
+	@Option (name = "-partition", required = false)
+	private String partition = ShardedIndex.PARTITION_HASH;
+	
+	@Option (name = "-shardthreads", required = false)
+	private int shardThreads = Runtime.getRuntime().availableProcessors();
+	
+	@Option (name = "-metrics", required = false)
+	private String metrics = null;
+	
+	@Option (name = "-server", required = false)
+	private boolean server = false;
+	
+	@Option (name = "-port", required = false)
+	private int port = 8080;
+	
+	@Option (name = "-timeout", required = false)
+	private int timeout = 10000;
+	
 	private boolean isQueryPath = false;
 	
 	private String listSize = ArgumentValidator.SIZE_NONE;
@@ -63,6 +132,67 @@ public class ArgumentValidator {
 			return false;
 		}
 		
+		if (threads < 1) {
+			System.err.println("-threads must be at least 1.");
+			usage();
+			return false;
+		}
+		if (memoryBudget < 0) {
+			System.err.println("-membudget must not be negative.");
+			usage();
+			return false;
+		}
+		if (stemCacheSize < 1) {
+			System.err.println("-stemcache must be at least 1.");
+			usage();
+			return false;
+		}
+		if (readers < 1) {
+			System.err.println("-readers must be at least 1.");
+			usage();
+			return false;
+		}
+		if (!Scorer.exists(scorer)) {
+			System.err.println("Unknown -scorer " + scorer + ".");
+			usage();
+			return false;
+		}
+		if (budgetPostings < 0 || budgetMs < 0) {
+			System.err.println("-budgetpostings and -budgetms must not be negative.");
+			usage();
+			return false;
+		}
+		if (queryCacheSize < 0) {
+			System.err.println("-querycache must not be negative.");
+			usage();
+			return false;
+		}
+		if (asyncReads < 0) {
+			System.err.println("-asyncreads must not be negative.");
+			usage();
+			return false;
+		}
+		if (shards < 0 || shardThreads < 1) {
+			System.err.println("-shards must not be negative and -shardthreads must be at least 1.");
+			usage();
+			return false;
+		}
+		if (!partition.equals(ShardedIndex.PARTITION_HASH) && !partition.equals(ShardedIndex.PARTITION_CLASS)) {
+			System.err.println("Unknown -partition " + partition + ".");
+			usage();
+			return false;
+		}
+		if (shards > 0 && (!indexer || update || idxout == null)) {
+			System.err.println("-shards needs -indexer and the shard directory as -idxout.");
+			usage();
+			return false;
+		}
+		if (port < 0 || port > 65535 || timeout < 1) {
+			System.err.println("Invalid -port or -timeout.");
+			usage();
+			return false;
+		}
+		
 		// Threshold check
 		if (maxThreshold != -1 && maxThreshold < minThreshold) {
 			usage();
@@ -75,35 +205,48 @@ public class ArgumentValidator {
 			usage();
 			return false;
 		}
-		if (!indexer && this.query == null) {
+		if (!indexer && !update && this.query == null && this.idxout == null && this.batch == null && !server) {
 			System.err.println("If -indexer option is not set, a query is required.");
 			usage();
 			return false;			
 		}
 		
 		// Check inputfile if no -index is given
-		if (!indexer) {
-			if (!input.endsWith("arff.gz")) {
-				System.err.println("Input must be an arff.gz file.");
+		if (!indexer && !update) {
+			if (!input.endsWith("arff.gz") && !input.endsWith(".idx") && !SegmentedIndex.isSegmentDirectory(input)
+					&& !ShardedIndex.isShardDirectory(input)) {
+				System.err.println("Input must be an arff.gz or .idx file or a segment or shard directory.");
 				usage();
 				return false;				
 			}
-			if (!input.endsWith("arff.gz")) {
+			if (input.endsWith(".idx")) {
 				File file = new File(input);
 				if (!file.isFile()) {
-					System.err.println("If -indexer option is not set, a query is required.");
+					System.err.println("Index File <" + input + "> does not exist.");
 					usage();
 					return false;					
 				}
 			}
 		}
+		else if (update) {
+			if (idxout == null || indexer) {
+				System.err.println("-update needs the segment directory as -idxout (and no -indexer).");
+				usage();
+				return false;
+			}
+		}
 		else {
-			if (idxout == null || !idxout.endsWith("arff.gz")) {
-				System.err.println("Please set the indexer output file (FILE.arff.gz).");
+			if (idxout == null) {
+				System.err.println("Please set the indexer output file (FILE.arff.gz or FILE.idx).");
 				usage();	
 				return false;
 			}
 		}
+		if (!update && shards == 0 && idxout != null && !idxout.endsWith("arff.gz") && !idxout.endsWith(".idx")) {
+			System.err.println("The indexer output file must be an arff.gz or .idx file.");
+			usage();
+			return false;
+		}
 		
 				
 		
@@ -118,6 +261,27 @@ public class ArgumentValidator {
 		logger.debug("Set -q to " + query + ".");
 		logger.debug("Set -lsize to " + listSize + ".");
 		logger.debug("Set -t to " + topicNumber + ".");
+		logger.debug("Set -prune to " + pruning + ".");
+		logger.debug("Set -impact to " + impact + ".");
+		logger.debug("Set -budgetpostings to " + budgetPostings + ".");
+		logger.debug("Set -budgetms to " + budgetMs + ".");
+		logger.debug("Set -impactcheck to " + impactCheck + ".");
+		logger.debug("Set -batch to " + batch + ".");
+		logger.debug("Set -threads to " + threads + ".");
+		logger.debug("Set -update to " + update + ".");
+		logger.debug("Set -membudget to " + memoryBudget + ".");
+		logger.debug("Set -stemcache to " + stemCacheSize + ".");
+		logger.debug("Set -readers to " + readers + ".");
+		logger.debug("Set -asyncreads to " + asyncReads + ".");
+		logger.debug("Set -scorer to " + scorer + ".");
+		logger.debug("Set -querycache to " + queryCacheSize + ".");
+		logger.debug("Set -shards to " + shards + ".");
+		logger.debug("Set -partition to " + partition + ".");
+		logger.debug("Set -shardthreads to " + shardThreads + ".");
+		logger.debug("Set -metrics to " + metrics + ".");
+		logger.debug("Set -server to " + server + ".");
+		logger.debug("Set -port to " + port + ".");
+		logger.debug("Set -timeout to " + timeout + ".");
 		logger.debug("Query type is " + (this.isQueryPath ? "a path to query document." : "a direct query input."));
 
 		
@@ -218,12 +382,201 @@ public class ArgumentValidator {
 				"[-q (<path>|query)] : The path to the query file or the query itself.\n" +
 				"[-lsize (none|small|medium|large)] :  Sets the list size. (default none)\n" + 
 				"[-t X] : Sets the topic number. (default 0) \n" +
+				"[-prune] : Uses dynamic pruning (MaxScore) for the search.\n" +
+				"[-impact] : Searches impact ordered postings score-at-a-time (anytime ranking).\n" +
+				"[-budgetpostings X] : Postings per -impact query. (default 0 = unlimited)\n" +
+				"[-budgetms X] : Time per -impact query in ms. (default 0 = unlimited)\n" +
+				"[-impactcheck] : Logs how many of the exhaustive top k the -impact search found.\n" +
+				"[-batch <path>] : Runs all queries of the batch file (topic, query, output per line).\n" +
+				"[-threads X] : Number of threads for the batch search and the server. (default 1)\n" +
+				"[-update] : Adds the new and changed documents of the collection to the segment directory -idxout.\n" +
+				"[-membudget MB] : Builds the index in blocks of MB megabytes on disk. (default 0 = in memory)\n" +
+				"[-stemcache X] : Number of cached stems. (default " + StemCache.DEFAULT_CAPACITY + ")\n" +
+				"[-readers X] : Number of threads reading the documents while indexing. (default 1)\n" +
+				"[-asyncreads X] : Reads the documents asynchronously, X reads at a time. (default 0 = -readers)\n" +
+				"[-scorer (jm|dirichlet|bm25|tfidf)] : Retrieval model of the search. (default jm)\n" +
+				"[-querycache X] : Number of cached query results, 0 disables the cache. (default " + QueryCache.DEFAULT_CAPACITY + ")\n" +
+				"[-shards X] : Indexes the collection into X shards in the directory -idxout. (default 0 = one index)\n" +
+				"[-partition (hash|class)] : Assigns the documents to the shards by the hash of their id or by class. (default hash)\n" +
+				"[-shardthreads X] : Number of threads searching the shards of a query. (default number of cores)\n" +
+				"[-metrics <path>] : Writes the phase times, throughput and search latencies as JSON at the end.\n" +
+				"[-server] : Answers queries over HTTP on localhost.\n" +
+				"[-port X] : Port of the server. (default 8080)\n" +
+				"[-timeout X] : Timeout of a server request in ms. (default 10000)\n" +
 				"[-searchout <path>] : The search output (TREC) file.\n" + 
-				"-i <path> : Path to the collection or arff.gz containing the index..\n" +
-				"[-idxout <path>] : The indexer output file (arff.gz).\n"
+				"-i <path> : Path to the collection or arff.gz/.idx containing the index..\n" +
+				"[-idxout <path>] : The indexer output file (arff.gz or .idx).\n"
 				);
 	}
 	
+	public boolean hasUpdate() {
+		return update;
+	}
+
+	public void setUpdate(boolean update) {
+		this.update = update;
+	}
+
+	public int getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	public void setMemoryBudget(int memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	public int getStemCacheSize() {
+		return stemCacheSize;
+	}
+
+	public void setStemCacheSize(int stemCacheSize) {
+		this.stemCacheSize = stemCacheSize;
+	}
+
+	public int getReaders() {
+		return readers;
+	}
+
+	public void setReaders(int readers) {
+		this.readers = readers;
+	}
+
+	public int getAsyncReads() {
+		return asyncReads;
+	}
+
+	public void setAsyncReads(int asyncReads) {
+		this.asyncReads = asyncReads;
+	}
+
+	public String getScorer() {
+		return scorer;
+	}
+
+	public void setScorer(String scorer) {
+		this.scorer = scorer;
+	}
+
+	public int getQueryCacheSize() {
+		return queryCacheSize;
+	}
+
+	public void setQueryCacheSize(int queryCacheSize) {
+		this.queryCacheSize = queryCacheSize;
+	}
+
+	public boolean hasImpact() {
+		return impact;
+	}
+
+	public void setImpact(boolean impact) {
+		this.impact = impact;
+	}
+
+	public long getBudgetPostings() {
+		return budgetPostings;
+	}
+
+	public void setBudgetPostings(long budgetPostings) {
+		this.budgetPostings = budgetPostings;
+	}
+
+	public long getBudgetMs() {
+		return budgetMs;
+	}
+
+	public void setBudgetMs(long budgetMs) {
+		this.budgetMs = budgetMs;
+	}
+
+	public boolean hasImpactCheck() {
+		return impactCheck;
+	}
+
+	public void setImpactCheck(boolean impactCheck) {
+		this.impactCheck = impactCheck;
+	}
+
+	public int getShards() {
+		return shards;
+	}
+
+	public void setShards(int shards) {
+		this.shards = shards;
+	}
+
+	public String getPartition() {
+		return partition;
+	}
+
+	public void setPartition(String partition) {
+		this.partition = partition;
+	}
+
+	public int getShardThreads() {
+		return shardThreads;
+	}
+
+	public void setShardThreads(int shardThreads) {
+		this.shardThreads = shardThreads;
+	}
+
+	public String getMetrics() {
+		return metrics;
+	}
+
+	public void setMetrics(String metrics) {
+		this.metrics = metrics;
+	}
+
+	public boolean hasServer() {
+		return server;
+	}
+
+	public void setServer(boolean server) {
+		this.server = server;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public void setPort(int port) {
+		this.port = port;
+	}
+
+	public int getTimeout() {
+		return timeout;
+	}
+
+	public void setTimeout(int timeout) {
+		this.timeout = timeout;
+	}
+
+	public String getBatch() {
+		return batch;
+	}
+
+	public void setBatch(String batch) {
+		this.batch = batch;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public boolean hasPruning() {
+		return pruning;
+	}
+
+	public void setPruning(boolean pruning) {
+		this.pruning = pruning;
+	}
+
 	public boolean hasStemming() {
 		return stemming;
 	}
@@ -0,0 +1,429 @@
+package indexer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+import utils.BlockGzip;
+
+/**
+ * Reads the index from an ARFF file written by ARFFWriter.
+ *
+ * Block compressed files (see BlockGzip) are read in two steps: the members
+ * of the header are decompressed one after the other until the @DATA line,
+ * then the members of the data section are decompressed and parsed by a
+ * thread pool. Every block yields the rows it contains with block local
+ * document numbers, the blocks are added to the posting lists in file order,
+ * so the documents get the same ordinals as with a sequential read. Plain
+ * gzip files (written by older versions or recompressed by a gzip tool) are
+ * read sequentially.
+ *
+ * The rows are scanned directly in the decompressed bytes: attribute
+ * indexes and values are parsed into primitive arrays without creating
+ * strings (only for the document ids and classes), and since the documents
+ * are numbered in file order the posting lists come out sorted by doc.
+ */
+public class ARFFReader {
+
+	// Number of attributes in front of the terms: class, name, stemming
+	private static final int FIRST_TERM = 3;
+
+	// Decompressed blocks per thread that may wait to be added
+	private static final int PENDING_PER_THREAD = 2;
+
+	// Initial size of the buffer for reading plain gzip files
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private static final byte[] ATTRIBUTE = "@ATTRIBUTE".getBytes(BinaryIndex.UTF8);
+	private static final byte[] DATA = "@DATA".getBytes(BinaryIndex.UTF8);
+
+	private int maxThreads;
+
+	// Posting list per term attribute (attribute index - FIRST_TERM)
+	private List<PostingList> attributes = new ArrayList<PostingList>();
+
+	private ConcurrentHashMap<String, PostingList> index = new ConcurrentHashMap<String, PostingList>();
+	private List<String> docIds = new ArrayList<String>();
+	private Set<String> classes = new HashSet<String>();
+	private boolean useStemming = false;
+
+	/**
+	 * Rows of a block, documents are numbered from 0 within the block
+	 */
+	private static class Rows {
+		private List<String> docIds = new ArrayList<String>();
+		private Set<String> classes = new HashSet<String>();
+		private boolean useStemming;
+
+		// (term attribute, doc, tf) per posting
+		private int[] terms = new int[1024];
+		private int[] docs = new int[1024];
+		private int[] tfs = new int[1024];
+		private int size = 0;
+
+		void addDocument(String docId, String docClass, boolean useStemming) {
+			docIds.add(docId);
+			classes.add(docClass);
+			this.useStemming = useStemming;
+		}
+
+		void addPosting(int term, int doc, int tf) {
+			if (size == terms.length) {
+				terms = Arrays.copyOf(terms, size * 2);
+				docs = Arrays.copyOf(docs, size * 2);
+				tfs = Arrays.copyOf(tfs, size * 2);
+			}
+			terms[size] = term;
+			docs[size] = doc;
+			tfs[size] = tf;
+			size++;
+		}
+	}
+
+	/**
+	 * @param maxThreads - number of threads decompressing and parsing blocks
+	 */
+	public ARFFReader(int maxThreads) {
+		this.maxThreads = maxThreads;
+	}
+
+	/**
+	 * Reads the file, the result is available through the getters
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void read(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			long[] members = BlockGzip.getMembers(raf);
+			if (members != null) {
+				readBlocks(raf.getChannel(), members);
+				return;
+			}
+		}
+		finally {
+			raf.close();
+		}
+
+		InputStream in = new GZIPInputStream(new FileInputStream(file), BUFFER_SIZE);
+		try {
+			readStream(in);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads a plain gzip file, the complete lines in the buffer are parsed
+	 * whenever it has been filled
+	 */
+	private void readStream(InputStream in) throws IOException {
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int length = 0;
+		boolean inData = false;
+		Rows rows = new Rows();
+		while (true) {
+			int n = in.read(buffer, length, buffer.length - length);
+			if (n > 0) {
+				length += n;
+				if (length < buffer.length) {
+					continue;
+				}
+			}
+			// Parse up to the last line break (or everything at the end of the file)
+			int end = n < 0 ? length : lastLineEnd(buffer, length);
+			if (end < 0) {
+				// A single line fills the buffer
+				buffer = Arrays.copyOf(buffer, buffer.length * 2);
+				continue;
+			}
+			int pos = 0;
+			if (!inData) {
+				pos = readHeader(buffer, 0, end);
+				inData = pos >= 0;
+			}
+			if (inData) {
+				parseRows(buffer, pos, end, rows);
+			}
+			System.arraycopy(buffer, end, buffer, 0, length - end);
+			length -= end;
+			if (n < 0) {
+				break;
+			}
+		}
+		add(rows);
+	}
+
+	private static int lastLineEnd(byte[] buffer, int length) {
+		for (int i = length - 1; i >= 0; i--) {
+			if (buffer[i] == '\n') {
+				return i + 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Reads the header members sequentially and the data members in parallel
+	 */
+	private void readBlocks(final FileChannel channel, final long[] members) throws IOException {
+		int member = 0;
+		boolean inData = false;
+		while (!inData && member < members.length - 1) {
+			byte[] block = BlockGzip.decompress(channel, members[member], getSize(members, member));
+			inData = readHeader(block, 0, block.length) >= 0;
+			member++;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(maxThreads);
+		try {
+			ArrayDeque<Future<Rows>> pending = new ArrayDeque<Future<Rows>>();
+			for (; member < members.length - 1; member++) {
+				final long offset = members[member];
+				final int size = getSize(members, member);
+				pending.add(executor.submit(new Callable<Rows>() {
+					@Override
+					public Rows call() throws IOException {
+						byte[] block = BlockGzip.decompress(channel, offset, size);
+						Rows rows = new Rows();
+						parseRows(block, 0, block.length, rows);
+						return rows;
+					}
+				}));
+				while (pending.size() > PENDING_PER_THREAD * maxThreads) {
+					add(pending.poll());
+				}
+			}
+			while (!pending.isEmpty()) {
+				add(pending.poll());
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static int getSize(long[] members, int member) {
+		return (int) (members[member + 1] - members[member]);
+	}
+
+	/**
+	 * Reads the attributes up to the @DATA line, the class, name and
+	 * stemming attributes are skipped
+	 *
+	 * @param data
+	 * @param pos - start of a line
+	 * @param end - end of the last line
+	 * @return the position after the @DATA line, or -1 if it has not been read
+	 */
+	private int readHeader(byte[] data, int pos, int end) {
+		while (pos < end) {
+			int lineEnd = pos;
+			while (lineEnd < end && data[lineEnd] != '\n') {
+				lineEnd++;
+			}
+			if (startsWith(data, pos, lineEnd, ATTRIBUTE)) {
+				// @ATTRIBUTE "name" type
+				int from = pos + ATTRIBUTE.length + 2;
+				int to = lineEnd - 1;
+				while (to > from && data[to] != '"') {
+					to--;
+				}
+				String name = new String(data, from, to - from, BinaryIndex.UTF8);
+				if (!name.equals("@documentClass@") && !name.equals("@documentName@") && !name.equals("@hasStemming@")) {
+					PostingList pList = new PostingList();
+					index.put(name, pList);
+					attributes.add(pList);
+				}
+			}
+			else if (startsWith(data, pos, lineEnd, DATA)) {
+				return Math.min(lineEnd + 1, end);
+			}
+			pos = lineEnd + 1;
+		}
+		return -1;
+	}
+
+	private static boolean startsWith(byte[] data, int pos, int end, byte[] prefix) {
+		if (end - pos < prefix.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (data[pos + i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Parses the data rows: {0 class, 1 "name", 2 stemming, index tf, ...}
+	 *
+	 * @param data
+	 * @param pos - start of a line
+	 * @param end - end of the last line
+	 * @param rows
+	 * @throws IOException if a row is malformed
+	 */
+	private static void parseRows(byte[] data, int pos, int end, Rows rows) throws IOException {
+		while (pos < end) {
+			if (data[pos] == '\n' || data[pos] == '\r') {
+				pos++;
+				continue;
+			}
+			if (data[pos] != '{') {
+				throw malformed(data, pos, end);
+			}
+			pos++;
+			int doc = rows.docIds.size();
+			String docClass = null;
+			String name = null;
+			boolean useStemming = false;
+			while (true) {
+				// Attribute index
+				int idx = 0;
+				int start = pos;
+				while (pos < end && data[pos] >= '0' && data[pos] <= '9') {
+					idx = idx * 10 + data[pos++] - '0';
+				}
+				if (pos == start || pos >= end || data[pos] != ' ') {
+					throw malformed(data, start, end);
+				}
+				pos++;
+
+				// Value up to the next ", " or "}"
+				start = pos;
+				if (idx == 1 && pos < end && data[pos] == '"') {
+					start++;
+					pos = start;
+					while (pos < end && data[pos] != '"') {
+						pos++;
+					}
+					name = new String(data, start, pos - start, BinaryIndex.UTF8);
+					pos++;
+				}
+				else if (idx == 0) {
+					while (pos < end && data[pos] != ',' && data[pos] != '}') {
+						pos++;
+					}
+					docClass = new String(data, start, pos - start, BinaryIndex.UTF8);
+				}
+				else {
+					// Integer part of a numeric value
+					int value = 0;
+					while (pos < end && data[pos] >= '0' && data[pos] <= '9') {
+						value = value * 10 + data[pos++] - '0';
+					}
+					if (pos < end && data[pos] == '.') {
+						pos++;
+						while (pos < end && data[pos] >= '0' && data[pos] <= '9') {
+							pos++;
+						}
+					}
+					if (pos == start) {
+						throw malformed(data, start, end);
+					}
+					if (idx == 2) {
+						useStemming = value == 1;
+					}
+					else if (idx >= FIRST_TERM) {
+						rows.addPosting(idx - FIRST_TERM, doc, value);
+					}
+				}
+
+				if (pos < end && data[pos] == ',') {
+					pos += 2;
+				}
+				else if (pos < end && data[pos] == '}') {
+					pos++;
+					break;
+				}
+				else {
+					throw malformed(data, start, end);
+				}
+			}
+			if (docClass == null || name == null) {
+				throw malformed(data, pos, end);
+			}
+			rows.addDocument(docClass + "/" + name, docClass, useStemming);
+		}
+	}
+
+	private static IOException malformed(byte[] data, int pos, int end) {
+		int lineEnd = pos;
+		while (lineEnd < end && lineEnd - pos < 80 && data[lineEnd] != '\n') {
+			lineEnd++;
+		}
+		return new IOException("Malformed ARFF row near \"" + new String(data, pos, lineEnd - pos, BinaryIndex.UTF8) + "\".");
+	}
+
+	private void add(Future<Rows> rows) throws IOException {
+		try {
+			add(rows.get());
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while reading the ARFF file.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Cannot parse the ARFF file.", e.getCause());
+		}
+	}
+
+	/**
+	 * Adds the rows of the next block, its documents follow the ones read so
+	 * far
+	 */
+	private void add(Rows rows) {
+		int firstDoc = docIds.size();
+		for (int i = 0; i < rows.size; i++) {
+			attributes.get(rows.terms[i]).add(firstDoc + rows.docs[i], rows.tfs[i]);
+		}
+		docIds.addAll(rows.docIds);
+		classes.addAll(rows.classes);
+		if (!rows.docIds.isEmpty()) {
+			useStemming = rows.useStemming;
+		}
+	}
+
+	/**
+	 * @return the posting lists by term (sorted by doc)
+	 */
+	public ConcurrentHashMap<String, PostingList> getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return the document ids in the order of the rows (= document ordinal)
+	 */
+	public List<String> getDocIds() {
+		return docIds;
+	}
+
+	public Set<String> getClasses() {
+		return classes;
+	}
+
+	public boolean hasStemming() {
+		return useStemming;
+	}
+
+}
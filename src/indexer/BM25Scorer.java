@@ -0,0 +1,40 @@
+package indexer;
+
+/**
+ * Okapi BM25:
+ *
+ * score(d) = sum_{t in d} idf(t) * tf * (K1 + 1) / (tf + K1 * (1 - B + B * |d| / avg|d|))
+ * idf(t)   = log(1 + (N - df + 0.5) / (df + 0.5))
+ */
+public class BM25Scorer extends Scorer {
+
+	private static final double K1 = 1.2;
+	private static final double B = 0.75;
+
+	@Override
+	public double background(double probability, int df, int numDocs) {
+		return 0;
+	}
+
+	@Override
+	public double weight(double probability, int df, int numDocs) {
+		return Math.log(1 + (numDocs - df + 0.5) / (df + 0.5));
+	}
+
+	@Override
+	public double norm(int length, double avgLength) {
+		return K1 * (1 - B + B * length / avgLength);
+	}
+
+	@Override
+	public double score(int tf, double norm, double weight) {
+		return weight * tf * (K1 + 1) / (tf + norm);
+	}
+
+	@Override
+	public double bound(double weight, double maxTfRatio, int maxLength, double avgLength) {
+		// The score grows with tf and with |d| for a fixed tf / |d|
+		return weight * (K1 + 1) * maxTfRatio / (maxTfRatio + K1 * (1 - B) / maxLength + K1 * B / avgLength);
+	}
+
+}
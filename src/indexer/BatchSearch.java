@@ -0,0 +1,154 @@
+package indexer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import utils.TRECFormater;
+
+/**
+ * Runs many queries against an index that is loaded only once.
+ *
+ * The batch file contains one query per line, the fields are separated by
+ * tabs:
+ *
+ * topic number, query (path of a document or the query text), output file
+ *
+ * Empty lines and lines starting with # are ignored. If the output file is
+ * missing the results are printed to stdout.
+ */
+public class BatchSearch {
+
+	private static Logger logger = Logger.getLogger(BatchSearch.class);
+
+	private Indexer indexer;
+	private int k;
+	private String listSize;
+
+	/**
+	 * One line of the batch file
+	 */
+	private static class Query {
+		int topic;
+		String query;
+		String searchOut;
+		long time;
+	}
+
+	/**
+	 * @param indexer - with a loaded index
+	 * @param k - number of results per query
+	 * @param listSize - name of the run (used in the TREC output)
+	 */
+	public BatchSearch(Indexer indexer, int k, String listSize) {
+		this.indexer = indexer;
+		this.k = k;
+		this.listSize = listSize;
+	}
+
+	/**
+	 * Runs all queries of the batch file
+	 *
+	 * @param filename - batch file
+	 * @param numThreads - number of queries that are run in parallel
+	 * @throws IOException
+	 */
+	public void run(String filename, int numThreads) throws IOException {
+		List<Query> queries = readBatchFile(filename);
+		logger.info("Running " + queries.size() + " queries with " + numThreads + " threads");
+
+		long start = System.nanoTime();
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		for (final Query query : queries) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					search(query);
+				}
+			});
+		}
+		executor.shutdown();
+		try {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+		long total = System.nanoTime() - start;
+
+		long sum = 0;
+		long max = 0;
+		for (Query query : queries) {
+			sum += query.time;
+			max = Math.max(max, query.time);
+		}
+		logger.info(String.format("Batch finished in %.1f ms (per query: mean %.1f ms, max %.1f ms)",
+				total / 1e6, queries.isEmpty() ? 0 : sum / 1e6 / queries.size(), max / 1e6));
+	}
+
+	private void search(Query query) {
+		long start = System.nanoTime();
+		String[] terms = null;
+		if (new File(query.query).isFile()) {
+			try {
+				terms = new Tokenizer().getTokens(query.query);
+			} catch (IOException e) {
+				logger.error("Cannot read query file " + query.query + " (topic " + query.topic + ")");
+				return;
+			}
+		}
+		else {
+			terms = query.query.split(" ");
+		}
+
+		List<SearchResult> result = indexer.search(terms, k);
+		query.time = System.nanoTime() - start;
+		logger.info(String.format("Topic %d: %.1f ms", query.topic, query.time / 1e6));
+
+		// Console output of parallel queries must not be interleaved
+		synchronized (BatchSearch.class) {
+			TRECFormater.printResult(result, query.topic, listSize, query.searchOut);
+		}
+	}
+
+	private List<Query> readBatchFile(String filename) throws IOException {
+		List<Query> queries = new ArrayList<Query>();
+		BufferedReader reader = new BufferedReader(new FileReader(filename));
+		try {
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				if (line.trim().isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] fields = line.split("\t");
+				if (fields.length < 2 || fields.length > 3) {
+					throw new IOException("Invalid batch entry in line " + lineNumber + ".");
+				}
+				Query query = new Query();
+				try {
+					query.topic = Integer.parseInt(fields[0].trim());
+				} catch (NumberFormatException e) {
+					throw new IOException("Invalid topic number in line " + lineNumber + ".");
+				}
+				query.query = fields[1];
+				query.searchOut = fields.length == 3 && !fields[2].trim().isEmpty() ? fields[2].trim() : null;
+				queries.add(query);
+			}
+		}
+		finally {
+			reader.close();
+		}
+		return queries;
+	}
+
+}
@@ -0,0 +1,528 @@
+package indexer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Read-only view of an index in the binary format.
+ *
+ * The file is mapped into memory as a whole, so opening an index only reads
+ * the header, everything else is paged in by the OS on demand (and shared
+ * between processes using the same file).
+ *
+ * Layout (big endian, offsets are absolute byte positions):
+ *
+ * header     : magic, version, flags, #docs, #terms, #classes, #tokens and
+ *              the offsets of the following sections
+ * classes    : string offset per document class
+ * doc table  : (name, vector start, vector length) per doc
+ * lengths    : document length (sum of the tf values) per doc
+ * dictionary : offset per block of TERM_BLOCK_SIZE terms, front coded blocks
+ * cf         : collection frequency per term
+ * df         : document frequency per term
+ * postings   : offset of the postings per term
+ * max tf/|d| : largest tf/|d| of the postings per term
+ * P(t|C)     : collection probability cf/|C| per term
+ * vectors    : (term, tf) entries, grouped by doc and sorted by term
+ * strings    : (unsigned short length, UTF-8 bytes) entries
+ * postings   : compressed posting list per term (see PostingsCursor)
+ *
+ * Documents are sorted by their id and terms lexicographically, so the
+ * ordinals can be compared instead of the strings. The document lengths and
+ * the per term statistics are stored as plain arrays indexed by the ordinal.
+ * Sections are aligned to 8 bytes.
+ *
+ * The dictionary stores the UTF-8 terms in blocks: the first term of a block
+ * as (length, bytes), every following term as (length of the prefix shared
+ * with the previous term, length of the rest, rest), lengths as variable
+ * byte integers. Consecutive terms share long prefixes, so this takes a
+ * fraction of the space of separate strings. A lookup is a binary search
+ * over the first terms of the blocks and a scan of one block.
+ *
+ * The posting lists are stored as bit packed document gaps and tf values,
+ * which takes a fraction of the space of fixed size (doc, tf) records, so
+ * more of them fit into the page cache and less memory has to be read per
+ * query.
+ */
+public class BinaryIndex {
+
+	public static final int MAGIC = 0x49445842; // "IDXB"
+	public static final int VERSION = 5;
+
+	static final int FLAG_STEMMING = 1;
+
+	static final int HEADER_SIZE = 80;
+	static final int DOC_RECORD_SIZE = 12;
+	static final int ENTRY_SIZE = 8;
+	static final int TERM_BLOCK_SIZE = 16;
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private ByteBuffer buffer;
+
+	private boolean stemming;
+	private int numDocs;
+	private int numTerms;
+	private int numClasses;
+	private long numTokens;
+
+	// Section offsets
+	private int classTable;
+	private int docTable;
+	private int dictionary;
+	private int postings;
+	private int vectors;
+	private int strings;
+
+	// Precomputed per document / per term values
+	private IntBuffer docLengths;
+	private IntBuffer cfs;
+	private IntBuffer dfs;
+	private IntBuffer postingOffsets;
+	private DoubleBuffer maxTfRatios;
+	private DoubleBuffer collectionProbabilities;
+
+	/**
+	 * Maps the given index file into memory
+	 *
+	 * @param filename
+	 * @return
+	 * @throws IOException
+	 */
+	public static BinaryIndex open(String filename) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(filename, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Index file <" + filename + "> is too large.");
+			}
+			return new BinaryIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+		finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Wraps an index image (either mapped or built in memory)
+	 *
+	 * @param buffer
+	 * @throws IOException
+	 */
+	public BinaryIndex(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not a binary index.");
+		}
+		if (buffer.getInt(4) != VERSION) {
+			throw new IOException("Unsupported binary index version " + buffer.getInt(4) + ".");
+		}
+		stemming = (buffer.getInt(8) & FLAG_STEMMING) != 0;
+		numDocs = buffer.getInt(12);
+		numTerms = buffer.getInt(16);
+		numClasses = buffer.getInt(20);
+		numTokens = buffer.getLong(24);
+		classTable = buffer.getInt(32);
+		docTable = buffer.getInt(36);
+		docLengths = slice(buffer.getInt(40), 4L * numDocs).asIntBuffer();
+		dictionary = buffer.getInt(44);
+		cfs = slice(buffer.getInt(48), 4L * numTerms).asIntBuffer();
+		dfs = slice(buffer.getInt(52), 4L * numTerms).asIntBuffer();
+		postingOffsets = slice(buffer.getInt(56), 4L * numTerms).asIntBuffer();
+		maxTfRatios = slice(buffer.getInt(60), 8L * numTerms).asDoubleBuffer();
+		collectionProbabilities = slice(buffer.getInt(64), 8L * numTerms).asDoubleBuffer();
+		vectors = buffer.getInt(68);
+		strings = buffer.getInt(72);
+		postings = buffer.getInt(76);
+	}
+
+	private ByteBuffer slice(int offset, long length) {
+		ByteBuffer view = buffer.duplicate();
+		view.position(offset);
+		view.limit((int) (offset + length));
+		return view.slice();
+	}
+
+	/**
+	 * Writes the index image to a file
+	 *
+	 * @param filename
+	 * @throws IOException
+	 */
+	public void writeTo(String filename) throws IOException {
+		FileOutputStream out = new FileOutputStream(new File(filename));
+		try {
+			ByteBuffer image = buffer.duplicate();
+			image.clear();
+			FileChannel channel = out.getChannel();
+			while (image.hasRemaining()) {
+				channel.write(image);
+			}
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	public boolean hasStemming() {
+		return stemming;
+	}
+
+	public int getNumDocs() {
+		return numDocs;
+	}
+
+	public int getNumTerms() {
+		return numTerms;
+	}
+
+	public long getNumTokens() {
+		return numTokens;
+	}
+
+	public List<String> getClasses() {
+		List<String> classes = new ArrayList<String>(numClasses);
+		for (int i = 0; i < numClasses; i++) {
+			classes.add(readString(buffer.getInt(classTable + 4 * i)));
+		}
+		return classes;
+	}
+
+	public String getDocId(int doc) {
+		return readString(buffer.getInt(docTable + doc * DOC_RECORD_SIZE));
+	}
+
+	/**
+	 * Returns the document length (sum of its tf values)
+	 *
+	 * @param doc
+	 * @return
+	 */
+	public int getDocLength(int doc) {
+		return docLengths.get(doc);
+	}
+
+	/**
+	 * Returns the number of distinct terms of the document
+	 *
+	 * @param doc
+	 * @return
+	 */
+	public int getVectorLength(int doc) {
+		return buffer.getInt(docTable + doc * DOC_RECORD_SIZE + 8);
+	}
+
+	/**
+	 * Returns the term of the i-th entry of a document vector
+	 *
+	 * @param doc
+	 * @param i
+	 * @return
+	 */
+	public int getVectorTerm(int doc, int i) {
+		return buffer.getInt(vectorEntry(doc, i));
+	}
+
+	/**
+	 * Returns the tf of the i-th entry of a document vector
+	 *
+	 * @param doc
+	 * @param i
+	 * @return
+	 */
+	public int getVectorTf(int doc, int i) {
+		return buffer.getInt(vectorEntry(doc, i) + 4);
+	}
+
+	/**
+	 * Looks up the term frequency of a term within a document
+	 *
+	 * @param doc
+	 * @param termId
+	 * @return the tf or 0 if the document does not contain the term
+	 */
+	public int getTf(int doc, int termId) {
+		int start = vectors + buffer.getInt(docTable + doc * DOC_RECORD_SIZE + 4) * ENTRY_SIZE;
+		int low = 0;
+		int high = getVectorLength(doc) - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int term = buffer.getInt(start + mid * ENTRY_SIZE);
+			if (term < termId) {
+				low = mid + 1;
+			}
+			else if (term > termId) {
+				high = mid - 1;
+			}
+			else {
+				return buffer.getInt(start + mid * ENTRY_SIZE + 4);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Decodes a term of the dictionary
+	 *
+	 * @param termId
+	 * @return
+	 */
+	public String getTerm(int termId) {
+		int block = termId / TERM_BLOCK_SIZE;
+		int pos = dictionary + buffer.getInt(dictionary + 4 * block);
+		byte[] term = new byte[16];
+		int length = 0;
+		for (int i = block * TERM_BLOCK_SIZE; i <= termId; i++) {
+			int prefix = 0;
+			if (i % TERM_BLOCK_SIZE != 0) {
+				prefix = readVInt(pos);
+				pos += getVIntSize(prefix);
+			}
+			int suffix = readVInt(pos);
+			pos += getVIntSize(suffix);
+			length = prefix + suffix;
+			if (term.length < length) {
+				term = Arrays.copyOf(term, Math.max(length, term.length * 2));
+			}
+			for (int j = 0; j < suffix; j++) {
+				term[prefix + j] = buffer.get(pos + j);
+			}
+			pos += suffix;
+		}
+		return new String(term, 0, length, UTF8);
+	}
+
+	public int getCf(int termId) {
+		return cfs.get(termId);
+	}
+
+	/**
+	 * Returns the collection probability P(t|C) = cf/|C| of a term
+	 *
+	 * @param termId
+	 * @return
+	 */
+	public double getCollectionProbability(int termId) {
+		return collectionProbabilities.get(termId);
+	}
+
+	public int getDf(int termId) {
+		return dfs.get(termId);
+	}
+
+	/**
+	 * Returns the largest tf/|d| of the postings of a term, this bounds
+	 * the score contribution of the term to any document
+	 *
+	 * @param termId
+	 * @return
+	 */
+	public double getMaxTfRatio(int termId) {
+		return maxTfRatios.get(termId);
+	}
+
+	/**
+	 * Returns a cursor over the postings of a term (positioned before the
+	 * first posting)
+	 *
+	 * @param termId
+	 * @return
+	 */
+	public PostingsCursor getPostings(int termId) {
+		return getPostings(termId, null);
+	}
+
+	/**
+	 * Returns a cursor over the postings of a term, reusing the given cursor
+	 * (and its buffers) if it belongs to this index
+	 *
+	 * @param termId
+	 * @param reuse - cursor that is no longer needed (or null)
+	 * @return
+	 */
+	public PostingsCursor getPostings(int termId, PostingsCursor reuse) {
+		int start = postings + postingOffsets.get(termId);
+		int df = dfs.get(termId);
+		if (reuse != null && reuse.isCursorOf(buffer)) {
+			reuse.reset(start, df);
+			return reuse;
+		}
+		return new PostingsCursor(buffer, start, df);
+	}
+
+	/**
+	 * Looks up a term in the dictionary
+	 *
+	 * @param term
+	 * @return the term id or -1 if the term is not in the index
+	 */
+	public int getTermId(String term) {
+		int termId = findTerm(term.getBytes(UTF8));
+		return termId >= 0 ? termId : -1;
+	}
+
+	/**
+	 * Returns the terms starting with the given prefix, they have
+	 * consecutive ids as the terms are sorted
+	 *
+	 * @param prefix
+	 * @return the first term id and the term id behind the last term
+	 *         (equal if there is no such term)
+	 */
+	public int[] getTermIdRange(String prefix) {
+		byte[] key = prefix.getBytes(UTF8);
+		int from = findTerm(key);
+		if (from < 0) {
+			from = -from - 1;
+		}
+		// The first key that is larger than all terms with the prefix
+		int end = key.length;
+		while (end > 0 && key[end - 1] == (byte) 0xff) {
+			end--;
+		}
+		int to = numTerms;
+		if (end > 0) {
+			byte[] next = Arrays.copyOf(key, end);
+			next[end - 1]++;
+			to = findTerm(next);
+			if (to < 0) {
+				to = -to - 1;
+			}
+		}
+		return new int[] { from, to };
+	}
+
+	/**
+	 * Binary search over the first terms of the blocks and a scan of the
+	 * block that may contain the key
+	 *
+	 * @param key - UTF-8 bytes
+	 * @return the term id, or -(insertion point) - 1 if the term is not in
+	 *         the dictionary (like Arrays.binarySearch)
+	 */
+	private int findTerm(byte[] key) {
+		// Last block whose first term is smaller than the key
+		int numBlocks = (numTerms + TERM_BLOCK_SIZE - 1) / TERM_BLOCK_SIZE;
+		int low = 0;
+		int high = numBlocks - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int pos = dictionary + buffer.getInt(dictionary + 4 * mid);
+			int length = readVInt(pos);
+			int cmp = compareBytes(pos + getVIntSize(length), length, key);
+			if (cmp < 0) {
+				low = mid + 1;
+			}
+			else if (cmp > 0) {
+				high = mid - 1;
+			}
+			else {
+				return mid * TERM_BLOCK_SIZE;
+			}
+		}
+		int block = high;
+		if (block < 0) {
+			return -1;
+		}
+
+		// Scan the block, matched = length of the prefix of the previous
+		// term that is equal to the key
+		int pos = dictionary + buffer.getInt(dictionary + 4 * block);
+		int first = block * TERM_BLOCK_SIZE;
+		int last = Math.min(first + TERM_BLOCK_SIZE, numTerms);
+		int matched = 0;
+		for (int termId = first; termId < last; termId++) {
+			int prefix = 0;
+			if (termId != first) {
+				prefix = readVInt(pos);
+				pos += getVIntSize(prefix);
+			}
+			int suffix = readVInt(pos);
+			pos += getVIntSize(suffix);
+			if (prefix < matched) {
+				// The term differs from the key at a smaller position than the
+				// previous term, so it is larger than the key
+				return -termId - 1;
+			}
+			if (prefix == matched) {
+				int i = 0;
+				while (i < suffix && matched < key.length && buffer.get(pos + i) == key[matched]) {
+					i++;
+					matched++;
+				}
+				if (i == suffix && matched == key.length) {
+					return termId;
+				}
+				if (i < suffix && (matched == key.length || (buffer.get(pos + i) & 0xff) > (key[matched] & 0xff))) {
+					return -termId - 1;
+				}
+			}
+			pos += suffix;
+		}
+		return -last - 1;
+	}
+
+	private int vectorEntry(int doc, int i) {
+		return vectors + (buffer.getInt(docTable + doc * DOC_RECORD_SIZE + 4) + i) * ENTRY_SIZE;
+	}
+
+	private String readString(int offset) {
+		int pos = strings + offset;
+		byte[] bytes = new byte[buffer.getShort(pos) & 0xffff];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = buffer.get(pos + 2 + i);
+		}
+		return new String(bytes, UTF8);
+	}
+
+	/**
+	 * Compares bytes of the image with the given UTF-8 bytes (unsigned byte
+	 * order)
+	 */
+	private int compareBytes(int pos, int length, byte[] key) {
+		int n = Math.min(length, key.length);
+		for (int i = 0; i < n; i++) {
+			int a = buffer.get(pos + i) & 0xff;
+			int b = key[i] & 0xff;
+			if (a != b) {
+				return a - b;
+			}
+		}
+		return length - key.length;
+	}
+
+	/**
+	 * Reads a variable byte integer (7 bits per byte, high bit set on all but
+	 * the last byte)
+	 */
+	private int readVInt(int pos) {
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get(pos++);
+			value |= (b & 0x7f) << shift;
+			shift += 7;
+		} while (b < 0);
+		return value;
+	}
+
+	static int getVIntSize(int value) {
+		int size = 1;
+		while ((value >>>= 7) != 0) {
+			size++;
+		}
+		return size;
+	}
+
+}
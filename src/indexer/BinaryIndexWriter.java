@@ -0,0 +1,415 @@
+package indexer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the binary index image from the inverted index.
+ *
+ * The layout is computed from the statistics of the documents and terms
+ * first, then the header, document table and strings are written with
+ * writeHeader() and the postings one term after the other with
+ * addPostings(), so the posting lists do not have to be in memory at once.
+ * The size of the compressed postings has to be known in advance (see
+ * getPostingsSize()), it is the last section so an upper bound is enough.
+ *
+ * @see BinaryIndex for the layout
+ */
+public class BinaryIndexWriter {
+
+	/**
+	 * Unsigned byte order, i.e. the order used by BinaryIndex.getTermId
+	 */
+	static final Comparator<byte[]> BYTE_ORDER = new Comparator<byte[]>() {
+		@Override
+		public int compare(byte[] a, byte[] b) {
+			int n = Math.min(a.length, b.length);
+			for (int i = 0; i < n; i++) {
+				int x = a[i] & 0xff;
+				int y = b[i] & 0xff;
+				if (x != y) {
+					return x - y;
+				}
+			}
+			return a.length - b.length;
+		}
+	};
+
+	private boolean useStemming;
+	private String[] classNames;
+	private List<String> docIds;
+	private int[] docLength;
+	private int[] vectorLength;
+	private List<byte[]> terms;
+	private int[] cfs;
+	private long numTokens;
+
+	// Section offsets
+	private long classTable;
+	private long docTable;
+	private long lengths;
+	private long dictionary;
+	private long cfTable;
+	private long dfTable;
+	private long postingOffsets;
+	private long maxTfRatios;
+	private long probabilities;
+	private long postings;
+	private long vectors;
+	private long strings;
+	private long size;
+
+	private ByteBuffer buffer;
+	private int[] cursor;
+	private int nextTerm = 0;
+	private int postingsEnd;
+
+	/**
+	 * Computes the layout of the image
+	 *
+	 * @param docIds - document ids sorted (ordinal = position)
+	 * @param docLength - document length per ordinal
+	 * @param vectorLength - number of distinct terms per ordinal
+	 * @param terms - UTF-8 encoded terms in BYTE_ORDER (term id = position)
+	 * @param cfs - collection frequency per term id
+	 * @param classes - document classes
+	 * @param postingsSize - size of the encoded posting lists (or an upper bound)
+	 * @param useStemming
+	 * @throws IOException if the index is too large for the format
+	 */
+	public BinaryIndexWriter(List<String> docIds, int[] docLength, int[] vectorLength, List<byte[]> terms,
+							 int[] cfs, Collection<String> classes, long postingsSize, boolean useStemming) throws IOException {
+		this.docIds = docIds;
+		this.docLength = docLength;
+		this.vectorLength = vectorLength;
+		this.terms = terms;
+		this.cfs = cfs;
+		this.useStemming = useStemming;
+
+		classNames = classes.toArray(new String[classes.size()]);
+		Arrays.sort(classNames);
+
+		long numEntries = 0;
+		for (int length : vectorLength) {
+			numEntries += length;
+		}
+		for (int termId = 0; termId < terms.size(); termId++) {
+			numTokens += cfs[termId];
+		}
+
+		// String pool
+		long poolSize = 0;
+		for (String className : classNames) {
+			poolSize += 2 + className.getBytes(BinaryIndex.UTF8).length;
+		}
+		for (String docId : docIds) {
+			poolSize += 2 + docId.getBytes(BinaryIndex.UTF8).length;
+		}
+
+		int numDocs = docIds.size();
+		int numTerms = terms.size();
+		classTable = BinaryIndex.HEADER_SIZE;
+		docTable = align(classTable + 4L * classNames.length);
+		lengths = align(docTable + (long) BinaryIndex.DOC_RECORD_SIZE * numDocs);
+		dictionary = align(lengths + 4L * numDocs);
+		cfTable = align(dictionary + getDictionarySize(terms));
+		dfTable = align(cfTable + 4L * numTerms);
+		postingOffsets = align(dfTable + 4L * numTerms);
+		maxTfRatios = align(postingOffsets + 4L * numTerms);
+		probabilities = align(maxTfRatios + 8L * numTerms);
+		vectors = align(probabilities + 8L * numTerms);
+		strings = vectors + BinaryIndex.ENTRY_SIZE * numEntries;
+		postings = align(strings + poolSize);
+		postingsEnd = (int) postings;
+		size = postings + postingsSize + PostingsCursor.PADDING;
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Index is too large for the binary format (" + size + " bytes).");
+		}
+	}
+
+	/**
+	 * @return the size of the image in bytes
+	 */
+	public int getSize() {
+		return (int) size;
+	}
+
+	/**
+	 * @return the size of the image up to the postings written so far, less
+	 *         than getSize() if the postingsSize was an upper bound
+	 */
+	public int getWrittenSize() {
+		return postingsEnd + PostingsCursor.PADDING;
+	}
+
+	/**
+	 * @return the size of the front coded dictionary (see BinaryIndex)
+	 */
+	private static long getDictionarySize(List<byte[]> terms) {
+		int numBlocks = (terms.size() + BinaryIndex.TERM_BLOCK_SIZE - 1) / BinaryIndex.TERM_BLOCK_SIZE;
+		long size = 4L * numBlocks;
+		byte[] previous = null;
+		for (int termId = 0; termId < terms.size(); termId++) {
+			byte[] term = terms.get(termId);
+			int prefix = 0;
+			if (termId % BinaryIndex.TERM_BLOCK_SIZE != 0) {
+				prefix = getSharedPrefix(previous, term);
+				size += BinaryIndex.getVIntSize(prefix);
+			}
+			size += BinaryIndex.getVIntSize(term.length - prefix) + term.length - prefix;
+			previous = term;
+		}
+		return size;
+	}
+
+	private static int getSharedPrefix(byte[] a, byte[] b) {
+		int n = Math.min(a.length, b.length);
+		int i = 0;
+		while (i < n && a[i] == b[i]) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Writes the header, classes, document table, document lengths, the
+	 * dictionary and the string pool into the buffer (which must have
+	 * getSize() bytes)
+	 *
+	 * @param buffer
+	 * @throws IOException
+	 */
+	public void writeHeader(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		int numDocs = docIds.size();
+		buffer.putInt(0, BinaryIndex.MAGIC);
+		buffer.putInt(4, BinaryIndex.VERSION);
+		buffer.putInt(8, useStemming ? BinaryIndex.FLAG_STEMMING : 0);
+		buffer.putInt(12, numDocs);
+		buffer.putInt(16, terms.size());
+		buffer.putInt(20, classNames.length);
+		buffer.putLong(24, numTokens);
+		buffer.putInt(32, (int) classTable);
+		buffer.putInt(36, (int) docTable);
+		buffer.putInt(40, (int) lengths);
+		buffer.putInt(44, (int) dictionary);
+		buffer.putInt(48, (int) cfTable);
+		buffer.putInt(52, (int) dfTable);
+		buffer.putInt(56, (int) postingOffsets);
+		buffer.putInt(60, (int) maxTfRatios);
+		buffer.putInt(64, (int) probabilities);
+		buffer.putInt(68, (int) vectors);
+		buffer.putInt(72, (int) strings);
+		buffer.putInt(76, (int) postings);
+
+		int poolOffset = 0;
+		for (int i = 0; i < classNames.length; i++) {
+			buffer.putInt((int) classTable + 4 * i, poolOffset);
+			poolOffset = putString((int) strings, poolOffset, classNames[i].getBytes(BinaryIndex.UTF8));
+		}
+
+		// Document table
+		cursor = new int[numDocs];
+		int vectorStart = 0;
+		for (int i = 0; i < numDocs; i++) {
+			int record = (int) docTable + i * BinaryIndex.DOC_RECORD_SIZE;
+			buffer.putInt(record, poolOffset);
+			buffer.putInt(record + 4, vectorStart);
+			buffer.putInt(record + 8, vectorLength[i]);
+			buffer.putInt((int) lengths + 4 * i, docLength[i]);
+			poolOffset = putString((int) strings, poolOffset, docIds.get(i).getBytes(BinaryIndex.UTF8));
+			cursor[i] = vectorStart;
+			vectorStart += vectorLength[i];
+		}
+
+		// Dictionary
+		int numBlocks = (terms.size() + BinaryIndex.TERM_BLOCK_SIZE - 1) / BinaryIndex.TERM_BLOCK_SIZE;
+		int pos = (int) dictionary + 4 * numBlocks;
+		byte[] previous = null;
+		for (int termId = 0; termId < terms.size(); termId++) {
+			byte[] term = terms.get(termId);
+			int prefix = 0;
+			if (termId % BinaryIndex.TERM_BLOCK_SIZE == 0) {
+				buffer.putInt((int) dictionary + 4 * (termId / BinaryIndex.TERM_BLOCK_SIZE), pos - (int) dictionary);
+			}
+			else {
+				prefix = getSharedPrefix(previous, term);
+				pos = putVInt(pos, prefix);
+			}
+			pos = putVInt(pos, term.length - prefix);
+			for (int i = prefix; i < term.length; i++) {
+				buffer.put(pos++, term[i]);
+			}
+			previous = term;
+		}
+	}
+
+	/**
+	 * Writes the postings of the next term (terms have to be added in id order,
+	 * so the vectors end up sorted by term id)
+	 *
+	 * @param pList - postings with the final document ordinals, sorted by doc
+	 */
+	public void addPostings(PostingList pList) {
+		int termId = nextTerm++;
+		buffer.putInt((int) cfTable + 4 * termId, cfs[termId]);
+		buffer.putDouble((int) probabilities + 8 * termId, (double) cfs[termId] / numTokens);
+		buffer.putInt((int) dfTable + 4 * termId, pList.size());
+		buffer.putInt((int) postingOffsets + 4 * termId, postingsEnd - (int) postings);
+		postingsEnd = PostingsCursor.encode(buffer, postingsEnd, pList);
+
+		double maxTfRatio = 0;
+		for (int i = 0; i < pList.size(); i++) {
+			int doc = pList.getDoc(i);
+			int tf = pList.getTf(i);
+			maxTfRatio = Math.max(maxTfRatio, (double) tf / docLength[doc]);
+
+			int entry = (int) vectors + cursor[doc] * BinaryIndex.ENTRY_SIZE;
+			buffer.putInt(entry, termId);
+			buffer.putInt(entry + 4, tf);
+			cursor[doc]++;
+		}
+		buffer.putDouble((int) maxTfRatios + 8 * termId, maxTfRatio);
+	}
+
+	/**
+	 * Returns the size of the encoded postings of a term, the sum over all
+	 * terms is the postingsSize of the constructor. Mapping the documents to
+	 * ordinals in the same order with gaps removed can only make it smaller.
+	 *
+	 * @param pList - postings sorted by doc
+	 * @return
+	 */
+	public static long getPostingsSize(PostingList pList) {
+		return PostingsCursor.getEncodedSize(pList);
+	}
+
+	/**
+	 * Creates an in memory index image
+	 *
+	 * @param index - posting lists (of document ordinals)
+	 * @param docIds - document ids indexed by ordinal
+	 * @param classes - document classes
+	 * @param useStemming
+	 * @return
+	 * @throws IOException
+	 */
+	public static BinaryIndex build(Map<String, PostingList> index, final List<String> docIds,
+									Collection<String> classes, boolean useStemming) throws IOException {
+
+		// Sort terms (empty posting lists are dropped)
+		ArrayList<byte[]> termList = new ArrayList<byte[]>(index.size());
+		for (Map.Entry<String, PostingList> entry : index.entrySet()) {
+			if (entry.getValue().size() > 0) {
+				termList.add(entry.getKey().getBytes(BinaryIndex.UTF8));
+			}
+		}
+		byte[][] terms = termList.toArray(new byte[termList.size()][]);
+		Arrays.sort(terms, BYTE_ORDER);
+		PostingList[] postingLists = new PostingList[terms.length];
+		int[] cfs = new int[terms.length];
+		for (int termId = 0; termId < terms.length; termId++) {
+			String term = new String(terms[termId], BinaryIndex.UTF8);
+			postingLists[termId] = index.get(term);
+			cfs[termId] = postingLists[termId].getCf();
+		}
+
+		// Documents that occur in the index get new ordinals in docId order
+		boolean[] used = new boolean[docIds.size()];
+		int numDocs = 0;
+		for (PostingList pList : postingLists) {
+			for (int i = 0; i < pList.size(); i++) {
+				if (!used[pList.getDoc(i)]) {
+					used[pList.getDoc(i)] = true;
+					numDocs++;
+				}
+			}
+		}
+		Integer[] docs = new Integer[numDocs];
+		numDocs = 0;
+		for (int i = 0; i < used.length; i++) {
+			if (used[i]) {
+				docs[numDocs++] = i;
+			}
+		}
+		Arrays.sort(docs, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return docIds.get(a).compareTo(docIds.get(b));
+			}
+		});
+		int[] ordinals = new int[docIds.size()];
+		List<String> sortedIds = new ArrayList<String>(numDocs);
+		for (int i = 0; i < docs.length; i++) {
+			ordinals[docs[i]] = i;
+			sortedIds.add(docIds.get(docs[i]));
+		}
+
+		// Vector sizes, document lengths and the size of the postings, the
+		// remapped lists are kept for writing
+		int[] vectorLength = new int[numDocs];
+		int[] docLength = new int[numDocs];
+		long postingsSize = 0;
+		for (int termId = 0; termId < postingLists.length; termId++) {
+			PostingList pList = remap(postingLists[termId], ordinals);
+			for (int i = 0; i < pList.size(); i++) {
+				vectorLength[pList.getDoc(i)]++;
+				docLength[pList.getDoc(i)] += pList.getTf(i);
+			}
+			postingsSize += getPostingsSize(pList);
+			postingLists[termId] = pList;
+		}
+
+		BinaryIndexWriter writer = new BinaryIndexWriter(sortedIds, docLength, vectorLength, Arrays.asList(terms),
+				cfs, classes, postingsSize, useStemming);
+		ByteBuffer buffer = ByteBuffer.allocate(writer.getSize());
+		writer.writeHeader(buffer);
+		for (PostingList pList : postingLists) {
+			writer.addPostings(pList);
+		}
+		return new BinaryIndex(buffer);
+	}
+
+	private static long align(long offset) {
+		return (offset + 7) & ~7L;
+	}
+
+	/**
+	 * Maps the postings to the new document ordinals (sorted)
+	 */
+	private static PostingList remap(PostingList pList, int[] ordinals) {
+		PostingList result = new PostingList(pList.size());
+		for (int i = 0; i < pList.size(); i++) {
+			result.add(ordinals[pList.getDoc(i)], pList.getTf(i));
+		}
+		result.sortByDoc();
+		return result;
+	}
+
+	private int putVInt(int pos, int value) {
+		while ((value & ~0x7f) != 0) {
+			buffer.put(pos++, (byte) ((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put(pos++, (byte) value);
+		return pos;
+	}
+
+	private int putString(int strings, int offset, byte[] value) throws IOException {
+		if (value.length > 0xffff) {
+			throw new IOException("String too long for the binary format.");
+		}
+		buffer.putShort(strings + offset, (short) value.length);
+		for (int i = 0; i < value.length; i++) {
+			buffer.put(strings + offset + 2 + i, value[i]);
+		}
+		return offset + 2 + value.length;
+	}
+
+}
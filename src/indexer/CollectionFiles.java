@@ -0,0 +1,41 @@
+package indexer;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Files of a collection: a directory with one subdirectory per class
+ * (newsgroup) that holds the documents. The id of a document is
+ * "class/file name".
+ */
+public class CollectionFiles {
+
+	private CollectionFiles() {
+	}
+
+	/**
+	 * Adds all files of a directory tree
+	 *
+	 * @param file - directory or file
+	 * @param files
+	 */
+	public static void listFiles(File file, List<File> files) {
+		if (!file.isDirectory()) {
+			files.add(file);
+		}
+		if (file.list() != null) {
+			for (String fileName : file.list()) {
+				listFiles(new File(file, fileName), files);
+			}
+		}
+	}
+
+	public static String getDocId(File file) {
+		return getClassName(file) + "/" + file.getName();
+	}
+
+	public static String getClassName(File file) {
+		return file.getParentFile().getName();
+	}
+
+}
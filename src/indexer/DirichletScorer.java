@@ -0,0 +1,52 @@
+package indexer;
+
+/**
+ * Query likelihood with Dirichlet smoothing, in log space:
+ *
+ * log P(q|d) = sum_t log((tf + MU * P(t|C)) / (|d| + MU))
+ *            = sum_t log(P(t|C)) + |q| * log(MU / (|d| + MU))
+ *              + sum_{t in d} log(1 + tf / (MU * P(t|C)))
+ *
+ * The second sum (the prior) depends on the length of every document, so
+ * there is no dynamic pruning for this model.
+ */
+public class DirichletScorer extends Scorer {
+
+	private static final double MU = 2000;
+
+	@Override
+	public double background(double probability, int df, int numDocs) {
+		return Math.log(probability);
+	}
+
+	@Override
+	public double weight(double probability, int df, int numDocs) {
+		return 1 / (MU * probability);
+	}
+
+	@Override
+	public double norm(int length, double avgLength) {
+		return 1;
+	}
+
+	@Override
+	public double score(int tf, double norm, double weight) {
+		return Math.log(1 + tf * weight);
+	}
+
+	@Override
+	public double bound(double weight, double maxTfRatio, int maxLength, double avgLength) {
+		return Math.log(1 + maxTfRatio * maxLength * weight);
+	}
+
+	@Override
+	public boolean hasPrior() {
+		return true;
+	}
+
+	@Override
+	public double prior(int length) {
+		return Math.log(MU / (length + MU));
+	}
+
+}
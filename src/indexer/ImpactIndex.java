@@ -0,0 +1,222 @@
+package indexer;
+
+import java.util.Arrays;
+
+/**
+ * Impact ordered copy of the postings for score-at-a-time evaluation with a
+ * budget (anytime ranking).
+ *
+ * The score of every posting (of the model of the searcher) is quantized to
+ * an impact between 1 and LEVELS relative to the largest score of the
+ * collection, so the impacts of different terms can be added up. The
+ * postings of a term are grouped into segments of the same impact, highest
+ * impact first, the documents of a segment are in document order:
+ *
+ * termSegments   : first segment of every term
+ * segmentStarts  : first posting of every segment
+ * segmentImpacts : impact of every segment
+ * docs           : document ordinal of every posting
+ *
+ * A query processes the segments of all its terms in the order of their
+ * impact and adds the impacts to integer accumulators. The largest
+ * contributions come first, so the ranking is close to the final one early
+ * and the query can stop once its budget of postings or time is used up.
+ * Without a budget the ranking only differs from the exhaustive one by the
+ * quantization.
+ *
+ * The impacts depend on the model, so the layout is built from the postings
+ * when the index is loaded (two passes, one to find the largest score). It
+ * takes 4 bytes per posting.
+ */
+public class ImpactIndex {
+
+	public static final int LEVELS = 255;
+
+	private BinaryIndex index;
+	private Searcher searcher;
+
+	private int[] termSegments;
+	private int[] segmentStarts;
+	private byte[] segmentImpacts;
+	private int[] docs;
+
+	// Score of one impact unit
+	private double step;
+
+	/**
+	 * Builds the impact ordered postings
+	 *
+	 * @param index
+	 * @param searcher - searcher of the index (model and precomputed values)
+	 */
+	public ImpactIndex(BinaryIndex index, Searcher searcher) {
+		this.index = index;
+		this.searcher = searcher;
+		Scorer scorer = searcher.getScorer();
+		int numTerms = index.getNumTerms();
+
+		// Largest score of the collection
+		double max = 0;
+		long numPostings = 0;
+		int maxDf = 0;
+		PostingsCursor postings = null;
+		for (int termId = 0; termId < numTerms; termId++) {
+			double weight = searcher.getWeight(termId);
+			postings = index.getPostings(termId, postings);
+			while (postings.next()) {
+				max = Math.max(max, scorer.score(postings.tf(), searcher.getNorm(postings.doc()), weight));
+			}
+			numPostings += index.getDf(termId);
+			maxDf = Math.max(maxDf, index.getDf(termId));
+		}
+		step = max > 0 ? max / LEVELS : 1;
+
+		docs = new int[(int) numPostings];
+		termSegments = new int[numTerms + 1];
+		segmentStarts = new int[Math.max(numTerms, 16)];
+		segmentImpacts = new byte[segmentStarts.length];
+		int numSegments = 0;
+		int pos = 0;
+
+		int[] termDocs = new int[maxDf];
+		int[] termImpacts = new int[maxDf];
+		int[] counts = new int[LEVELS + 1];
+		for (int termId = 0; termId < numTerms; termId++) {
+			termSegments[termId] = numSegments;
+			double weight = searcher.getWeight(termId);
+			Arrays.fill(counts, 0);
+			int n = 0;
+			postings = index.getPostings(termId, postings);
+			while (postings.next()) {
+				int impact = quantize(scorer.score(postings.tf(), searcher.getNorm(postings.doc()), weight));
+				termDocs[n] = postings.doc();
+				termImpacts[n++] = impact;
+				counts[impact]++;
+			}
+
+			// One segment per impact (highest first), counts become the
+			// next position of the impact
+			for (int impact = LEVELS; impact > 0; impact--) {
+				if (counts[impact] == 0) {
+					continue;
+				}
+				if (numSegments + 1 >= segmentStarts.length) {
+					segmentStarts = Arrays.copyOf(segmentStarts, segmentStarts.length * 2);
+					segmentImpacts = Arrays.copyOf(segmentImpacts, segmentStarts.length);
+				}
+				segmentStarts[numSegments] = pos;
+				segmentImpacts[numSegments++] = (byte) impact;
+				int size = counts[impact];
+				counts[impact] = pos;
+				pos += size;
+			}
+			for (int i = 0; i < n; i++) {
+				docs[counts[termImpacts[i]]++] = termDocs[i];
+			}
+		}
+		termSegments[numTerms] = numSegments;
+		segmentStarts[numSegments] = pos;
+	}
+
+	/**
+	 * Score-at-a-time evaluation, stops once the budget is used up
+	 *
+	 * @param termIds - distinct query terms (sorted)
+	 * @param k - number of documents to select
+	 * @param maxPostings - postings budget (0 = no limit)
+	 * @param maxNanos - time budget, checked after every segment (0 = no
+	 *            limit)
+	 * @param stats - collects the used budget
+	 * @return the selected documents, the scores are the background plus
+	 *         the quantized scores
+	 */
+	public TopKSelector search(int[] termIds, int k, long maxPostings, long maxNanos, ImpactStatistics stats) {
+		long start = System.nanoTime();
+		double background = 0;
+		int numSegments = 0;
+		for (int termId : termIds) {
+			background += searcher.getBackground(termId);
+			numSegments += termSegments[termId + 1] - termSegments[termId];
+			stats.addPostings(index.getDf(termId));
+		}
+
+		// Segments by descending impact (then in term order)
+		long[] order = new long[numSegments];
+		int n = 0;
+		for (int termId : termIds) {
+			for (int segment = termSegments[termId]; segment < termSegments[termId + 1]; segment++) {
+				order[n++] = (long) (LEVELS - getImpact(segment)) << 32 | segment;
+			}
+		}
+		Arrays.sort(order);
+
+		int[] accumulators = new int[index.getNumDocs()];
+		int[] touched = new int[16];
+		int numTouched = 0;
+		long processed = 0;
+		for (int next = 0; next < order.length; next++) {
+			int segment = (int) order[next];
+			int impact = getImpact(segment);
+			int from = segmentStarts[segment];
+			int to = segmentStarts[segment + 1];
+			if (maxPostings > 0 && processed + to - from > maxPostings) {
+				to = from + (int) (maxPostings - processed);
+				stats.setExhausted("postings");
+			}
+			for (int i = from; i < to; i++) {
+				int doc = docs[i];
+				if (accumulators[doc] == 0) {
+					if (numTouched == touched.length) {
+						touched = Arrays.copyOf(touched, numTouched * 2);
+					}
+					touched[numTouched++] = doc;
+				}
+				accumulators[doc] += impact;
+			}
+			processed += to - from;
+			stats.increaseSegmentsProcessed();
+			// Only a budget that cuts off postings counts as used up
+			if (stats.getExhausted() != null || next == order.length - 1) {
+				break;
+			}
+			if (maxPostings > 0 && processed == maxPostings) {
+				stats.setExhausted("postings");
+				break;
+			}
+			if (maxNanos > 0 && System.nanoTime() - start >= maxNanos) {
+				stats.setExhausted("time");
+				break;
+			}
+		}
+		stats.addPostingsProcessed(processed);
+
+		TopKSelector selector = new TopKSelector(k);
+		for (int i = 0; i < numTouched; i++) {
+			selector.add(touched[i], background + accumulators[touched[i]] * step);
+		}
+		// Too few documents: fill up with documents that got no impact
+		for (int doc = index.getNumDocs() - 1; doc >= 0 && !selector.isFull(); doc--) {
+			if (accumulators[doc] == 0) {
+				selector.add(doc, background);
+			}
+		}
+		stats.setNanos(System.nanoTime() - start);
+		return selector;
+	}
+
+	/**
+	 * @return the number of impact segments of all terms
+	 */
+	public int getNumSegments() {
+		return termSegments[termSegments.length - 1];
+	}
+
+	private int getImpact(int segment) {
+		return segmentImpacts[segment] & 0xff;
+	}
+
+	private int quantize(double score) {
+		return Math.max(1, Math.min(LEVELS, (int) Math.round(score / step)));
+	}
+
+}
@@ -0,0 +1,62 @@
+package indexer;
+
+/**
+ * Budget used by a score-at-a-time query on the ImpactIndex
+ */
+public class ImpactStatistics {
+
+	// Postings of the query terms
+	private long postings = 0;
+
+	// Postings that have been processed before the budget was used up
+	private long postingsProcessed = 0;
+
+	// Impact segments (partly) processed
+	private int segmentsProcessed = 0;
+
+	private long nanos = 0;
+
+	// Which budget stopped the query (null = all postings processed)
+	private String exhausted = null;
+
+	public long getPostings() {
+		return postings;
+	}
+
+	public void addPostings(long postings) {
+		this.postings += postings;
+	}
+
+	public long getPostingsProcessed() {
+		return postingsProcessed;
+	}
+
+	public void addPostingsProcessed(long processed) {
+		postingsProcessed += processed;
+	}
+
+	public int getSegmentsProcessed() {
+		return segmentsProcessed;
+	}
+
+	public void increaseSegmentsProcessed() {
+		segmentsProcessed++;
+	}
+
+	public long getNanos() {
+		return nanos;
+	}
+
+	public void setNanos(long nanos) {
+		this.nanos = nanos;
+	}
+
+	public String getExhausted() {
+		return exhausted;
+	}
+
+	public void setExhausted(String exhausted) {
+		this.exhausted = exhausted;
+	}
+
+}
@@ -0,0 +1,115 @@
+package indexer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+
+/**
+ * An index that is a directory of binary index images and a manifest
+ * (ShardedIndex, SegmentedIndex).
+ *
+ * The manifest is a text file with one "key value" entry per line, empty
+ * lines and lines starting with # are ignored.
+ */
+public abstract class IndexDirectory {
+
+	protected File directory;
+
+	private String manifest;
+
+	/**
+	 * @param directory
+	 * @param manifest - file name of the manifest
+	 */
+	protected IndexDirectory(File directory, String manifest) {
+		this.directory = directory;
+		this.manifest = manifest;
+	}
+
+	/**
+	 * Reads an entry of the manifest
+	 *
+	 * @param key
+	 * @param value
+	 * @return false if the entry is invalid
+	 */
+	protected abstract boolean readManifestEntry(String key, String value);
+
+	/**
+	 * Writes the entries of the manifest
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	protected abstract void writeManifestEntries(Writer out) throws IOException;
+
+	protected void readManifest() throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				new FileInputStream(new File(directory, manifest)), BinaryIndex.UTF8));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] fields = line.split(" ", 2);
+				if (fields.length != 2 || !readManifestEntry(fields[0], fields[1])) {
+					throw new IOException("Invalid manifest line: " + line);
+				}
+			}
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid manifest in " + directory, e);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes the manifest to a temporary file and renames it, so a crash
+	 * never leaves a broken manifest
+	 */
+	protected void writeManifest() throws IOException {
+		File tmp = new File(directory, manifest + ".tmp");
+		BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), BinaryIndex.UTF8));
+		try {
+			writeManifestEntries(out);
+		}
+		finally {
+			out.close();
+		}
+		Files.move(tmp.toPath(), new File(directory, manifest).toPath(),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Adds the collection and document frequencies of the terms of an image
+	 * to the statistics of the whole index
+	 *
+	 * @param image
+	 * @param cfs
+	 * @param dfs
+	 * @return the terms of the image by term id
+	 */
+	protected static String[] addStatistics(BinaryIndex image, Map<String, Long> cfs, Map<String, Integer> dfs) {
+		String[] terms = new String[image.getNumTerms()];
+		for (int termId = 0; termId < terms.length; termId++) {
+			terms[termId] = image.getTerm(termId);
+			Long cf = cfs.get(terms[termId]);
+			cfs.put(terms[termId], (cf == null ? 0 : cf) + image.getCf(termId));
+			Integer df = dfs.get(terms[termId]);
+			dfs.put(terms[termId], (df == null ? 0 : df) + image.getDf(termId));
+		}
+		return terms;
+	}
+
+}
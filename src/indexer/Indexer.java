@@ -1,72 +1,241 @@
 package indexer;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
-import java.util.Vector;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
-import java.util.zip.GZIPInputStream;
 
 import org.apache.log4j.Logger;
 
 import utils.ARFFWriter;
-import utils.SortThread;
+import utils.StemCache;
 import utils.Stemmer;
-import args.ArgumentValidator;
 
 public class Indexer {
 	
+	public static final String BINARY_EXTENSION = ".idx";
+	
 	// Logger
 	private Logger logger = Logger.getLogger(Indexer.class);
 	
 	// Used for parallel processing
 	private ExecutorService executorService;
 
-	// Output of the map phase i.e (term, doc) pairs
-	private ConcurrentHashMap<String, Vector<String>> mapOut;
+	// Output of the map phase i.e (term, doc, tf) records
+	private MapOutput mapOut;
 
 	// Inverted index gets build during reduce
-	private ConcurrentHashMap<String, ArrayList<Posting>> index;
-
-	// Stores the documents as vectors
-	private HashMap<String, TreeMap<Integer, Double>> documentVectors;
+	private ConcurrentHashMap<String, PostingList> index;
 
-	// Stores collection frequencies for terms
-	private ConcurrentHashMap<String, Integer> cfMap;
+	// Binary index image used for searching (either built in memory or mapped from a file)
+	private BinaryIndex searchIndex;
 	
-	// Number of tokens
-	private int numTokens;
+	// Query evaluation on the search index
+	private Searcher searcher;
 	
-	/*
-	 * We use Jelinek-­‐Mercer Smoothing with a small lambda value, because
-	 * we mostly have long queries (whole documents).
-	 */
-	private final double LAMBDA = 0.2;
+	// Incrementally updated index (instead of searchIndex)
+	private SegmentedIndex segments;
+	
+	// Document partitioned index (instead of searchIndex)
+	private ShardedIndex shards;
+	
+	// Threads searching the shards of a query
+	private int shardThreads = 1;
 	
-	private ConcurrentHashMap<String, Integer> termIdMap = new ConcurrentHashMap<String, Integer>();
+	// Use dynamic pruning (MaxScore) for the search?
+	private boolean usePruning = false;
 	
+	// Score-at-a-time search on impact ordered postings (null = off)
+	private ImpactIndex impactIndex;
+	private boolean useImpacts = false;
 	
+	// Budget of an impact ordered search (0 = no limit)
+	private long maxPostings = 0;
+	private long maxMillis = 0;
+	
+	// Compare the impact ordered results with the exhaustive search?
+	private boolean impactCheck = false;
+	
+	// Document ids indexed by the document ordinal
 	private ArrayList<String> docIds = new ArrayList<String>();
+	private ArrayList<File> documents = new ArrayList<File>();
 	private HashSet<String> classes = new HashSet<String>();
 	private int numDocs = 0;
 	
 	private boolean useStemming;
 	
+	// Stems of the parsers and the queries
+	private StemCache stemCache = new StemCache(StemCache.DEFAULT_CAPACITY);
+	
 	private int maxThreads = 1;
 	
+	// Threads reading the documents while the others parse
+	private int readThreads = 1;
+	
+	// Asynchronous reads in flight instead of reader threads (0 = off)
+	private int asyncReads = 0;
+	
+	// Phase durations, throughput and search latencies
+	private IndexerMetrics metrics = new IndexerMetrics();
+	
+	// Retrieval model
+	private Scorer scorer = Scorer.create(Scorer.DEFAULT);
+	
+	// Results of recent queries
+	private QueryCache queryCache = new QueryCache(QueryCache.DEFAULT_CAPACITY);
+	
+	// Block size for external memory indexing (0 = build the index in memory)
+	private long memoryBudget = 0;
+	
 	public Indexer() {
 		maxThreads = Runtime.getRuntime().availableProcessors();
+		shardThreads = maxThreads;
+		metrics.setQueryCache(queryCache);
+	}
+	
+	public void setPruning(boolean usePruning) {
+		this.usePruning = usePruning;
+	}
+	
+	/**
+	 * Searches impact ordered postings score-at-a-time (see ImpactIndex),
+	 * must be called before the index is built or loaded
+	 * 
+	 * @param useImpacts
+	 */
+	public void setImpactOrdering(boolean useImpacts) {
+		this.useImpacts = useImpacts;
+	}
+	
+	/**
+	 * Sets the budget of the impact ordered search, a query stops once
+	 * either is used up
+	 * 
+	 * @param maxPostings - postings per query (0 = no limit)
+	 * @param maxMillis - time per query (0 = no limit)
+	 */
+	public void setImpactBudget(long maxPostings, long maxMillis) {
+		this.maxPostings = maxPostings;
+		this.maxMillis = maxMillis;
+	}
+	
+	/**
+	 * Also runs the exhaustive search and logs how many of the top k
+	 * documents the impact ordered search found
+	 * 
+	 * @param impactCheck
+	 */
+	public void setImpactCheck(boolean impactCheck) {
+		this.impactCheck = impactCheck;
+	}
+	
+	/**
+	 * Sets the number of threads used for indexing (default: number of cores)
+	 * 
+	 * @param maxThreads
+	 */
+	public void setMaxThreads(int maxThreads) {
+		this.maxThreads = maxThreads;
+	}
+	
+	/**
+	 * Sets the number of threads that search the shards of a query in
+	 * parallel, must be called before the shards are loaded (default:
+	 * number of cores)
+	 * 
+	 * @param shardThreads
+	 */
+	public void setShardThreads(int shardThreads) {
+		this.shardThreads = shardThreads;
+	}
+	
+	/**
+	 * Sets the number of threads reading the documents for the parser
+	 * threads (default: 1)
+	 * 
+	 * @param readThreads
+	 */
+	public void setReadThreads(int readThreads) {
+		this.readThreads = readThreads;
+	}
+	
+	/**
+	 * Reads the documents with asynchronous file channels instead of the
+	 * reader threads
+	 * 
+	 * @param asyncReads - number of reads in flight (0 = use reader threads)
+	 */
+	public void setAsyncReads(int asyncReads) {
+		this.asyncReads = asyncReads;
+	}
+	
+	/**
+	 * Sets the memory budget of the indexer, if set the index is built in
+	 * blocks of this size that are merged on disk (see SpimiIndexer)
+	 * 
+	 * @param memoryBudget - in bytes (0 = build the index in memory)
+	 */
+	public void setMemoryBudget(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+	
+	/**
+	 * Sets the number of entries of the stem cache
+	 * 
+	 * @param size
+	 */
+	public void setStemCacheSize(int size) {
+		stemCache = new StemCache(size);
+	}
+	
+	/**
+	 * Sets the retrieval model, must be called before the index is built
+	 * or loaded
+	 * 
+	 * @param name - see Scorer.create()
+	 */
+	public void setScorer(String name) {
+		scorer = Scorer.create(name);
+	}
+	
+	/**
+	 * Sets the number of cached query results (0 = no caching)
+	 * 
+	 * @param size
+	 */
+	public void setQueryCacheSize(int size) {
+		queryCache = new QueryCache(size);
+		metrics.setQueryCache(queryCache);
+	}
+	
+	public QueryCache getQueryCache() {
+		return queryCache;
+	}
+	
+	public IndexerMetrics getMetrics() {
+		return metrics;
+	}
+	
+	public int getNumDocs() {
+		if (segments != null) {
+			return segments.getNumDocs();
+		}
+		return shards != null ? shards.getNumDocs() : searchIndex.getNumDocs();
+	}
+	
+	public int getNumTerms() {
+		if (segments != null) {
+			return segments.getNumTerms();
+		}
+		return shards != null ? shards.getNumTerms() : searchIndex.getNumTerms();
 	}
 	
 	/**
@@ -94,77 +263,387 @@ public class Indexer {
 	 * @param useStemming 
 	 */
 	public void buildIndex(String targetDirectory, int minThreshold, int maxThreshold, boolean useStemming) {
+		buildIndex(new File(targetDirectory), null, minThreshold, maxThreshold, useStemming);
+	}
+	
+	/**
+	 * Build the index of the given files (e.g. a new segment)
+	 * 
+	 * @param files
+	 * @param minThreshold
+	 * @param maxThreshold
+	 * @param useStemming
+	 */
+	public void buildIndex(List<File> files, int minThreshold, int maxThreshold, boolean useStemming) {
+		buildIndex(null, files, minThreshold, maxThreshold, useStemming);
+	}
+	
+	/**
+	 * Build the index of a directory tree or of a list of files. In memory
+	 * the documents are parsed while the directory is traversed (see
+	 * IndexingPipeline).
+	 * 
+	 * @param directory - directory to traverse (or null)
+	 * @param files - files to index if there is no directory
+	 * @param minThreshold
+	 * @param maxThreshold
+	 * @param useStemming
+	 */
+	private void buildIndex(File directory, List<File> files, int minThreshold, int maxThreshold,
+			boolean useStemming) {
 		Long startTime = System.currentTimeMillis();
 		
 		logger.debug("Started indexing process.");
 		
 		this.useStemming = useStemming;		
 
-		executorService = Executors.newFixedThreadPool(maxThreads);
-		mapOut = new ConcurrentHashMap<String, Vector<String>>();
+		if (memoryBudget > 0) {
+			try {
+				addDocuments(directory, files, null);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+				System.exit(1);
+			}
+			buildIndexExternal(minThreshold, maxThreshold);
+		}
+		else {
+			long phaseStart = System.nanoTime();
+			mapOut = new MapOutput();
+			IndexingPipeline pipeline = new IndexingPipeline(readThreads, asyncReads, maxThreads, useStemming,
+					stemCache, mapOut);
+			metrics.setPipeline(pipeline);
+			try {
+				addDocuments(directory, files, pipeline);
+				pipeline.finish();
+				metrics.setPipeline(null);
+			} catch (IOException e) {
+				logger.error("Cannot build the index.", e);
+				System.exit(1);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+				System.exit(1);
+			}
+			
+			metrics.addPhaseTime(IndexerMetrics.Phase.MAP, System.nanoTime() - phaseStart);
+			metrics.addParsed(mapOut.getNumDocuments(), mapOut.getNumTokens());
+			logger.debug("End of map phase.");
 
-		traverseDir(new File(targetDirectory));
+			// Create Posting lists
+			phaseStart = System.nanoTime();
+			index = new ConcurrentHashMap<String, PostingList>();
+			executorService = Executors.newFixedThreadPool(maxThreads);
+			metrics.setExecutor(executorService);
 
-		// Wait for all threads to finish
-		waitForThreads();
-		
-		logger.debug("End of map phase.");
+			List<Map<String, PostingList>> partitions = mapOut.getPartitions();
+			for(String term : mapOut.getTerms()) {
+				executorService.execute(new Inverter(partitions, index, term, minThreshold, maxThreshold));
+			}
 
-		// Create Posting lists
-		index = new ConcurrentHashMap<String, ArrayList<Posting>>();
-		executorService = Executors.newFixedThreadPool(maxThreads);
+			// Wait for all threads to finish
+			waitForThreads();
+
+			metrics.setExecutor(null);
+			metrics.addPhaseTime(IndexerMetrics.Phase.REDUCE, System.nanoTime() - phaseStart);
+			logger.debug("End of reduce phase.");
+			mapOut = null;
 
-		for(String term : mapOut.keySet()) {
-			executorService.execute(new Inverter(mapOut, index, term, minThreshold, maxThreshold));
+			// Build the document vectors
+			buildSearchIndex();
 		}
+		documents = null;
 
-		// Wait for all threads to finish
-		waitForThreads();
+		logger.info("Done indexing " + numDocs + " documents in " 
+							+ (System.currentTimeMillis() - startTime) + "ms ");
+		logger.info("Number of terms: " + searchIndex.getNumTerms());
+		if (useStemming) {
+			logger.info("Stem cache: " + stemCache);
+		}
+	}
 
-		logger.debug("End of reduce phase.");
-		
-		// Build the document vectors
-		documentVectors = new HashMap<String, TreeMap<Integer, Double>>(numDocs, 1.0f);
-		int i = 0;
-		for (String term : index.keySet()) {
-			for (Posting p : index.get(term)) {
-				if (!documentVectors.containsKey(p.getDocId())) {
-					documentVectors.put(p.getDocId(), new TreeMap<Integer, Double>());
-				}
-				documentVectors.get(p.getDocId()).put(i, (double) p.getTf());
+	/**
+	 * Builds the index with a bounded amount of memory, the runs and the
+	 * index image are written to temporary files.
+	 * 
+	 * @param minThreshold
+	 * @param maxThreshold
+	 */
+	private void buildIndexExternal(int minThreshold, int maxThreshold) {
+		// Give the documents their ordinals in docId order, so the blocks
+		// contain increasing ranges of documents
+		Integer[] order = new Integer[documents.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return docIds.get(a).compareTo(docIds.get(b));
 			}
-			termIdMap.put(term, i);
-			i++;
+		});
+		ArrayList<File> sortedDocuments = new ArrayList<File>(order.length);
+		ArrayList<String> sortedIds = new ArrayList<String>(order.length);
+		for (Integer doc : order) {
+			sortedDocuments.add(documents.get(doc));
+			sortedIds.add(docIds.get(doc));
 		}
+		documents = sortedDocuments;
+		docIds = sortedIds;
 
-		buildCfMap();
+		try {
+			long phaseStart = System.nanoTime();
+			SpimiIndexer spimi = new SpimiIndexer(memoryBudget, maxThreads, useStemming, stemCache, minThreshold,
+					maxThreshold);
+			searchIndex = spimi.build(documents, docIds, classes);
+			queryCache.invalidate();
+			metrics.addPhaseTime(IndexerMetrics.Phase.EXTERNAL_BUILD, System.nanoTime() - phaseStart);
+			metrics.addParsed(spimi.getNumDocuments(), spimi.getNumTokens());
+			openSearcher();
+		} catch (IOException e) {
+			logger.error("Cannot build the index.", e);
+			System.exit(1);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
 
-		logger.info("Done indexing " + numDocs + " documents in " 
-							+ (System.currentTimeMillis() - startTime) + "ms ");
-		logger.info("Number of terms: " + index.size());
+	/**
+	 * Creates the searcher of the search index and the impact ordered
+	 * postings if they are used
+	 */
+	private void openSearcher() {
+		searcher = new Searcher(searchIndex, scorer);
+		impactIndex = null;
+		if (useImpacts) {
+			if (scorer.hasPrior()) {
+				logger.warn("The retrieval model has a document prior, impact ordered postings are not used.");
+				return;
+			}
+			long startTime = System.currentTimeMillis();
+			impactIndex = new ImpactIndex(searchIndex, searcher);
+			logger.info("Built " + impactIndex.getNumSegments() + " impact segments in "
+					+ (System.currentTimeMillis() - startTime) + "ms ");
+		}
+	}
+
+	/**
+	 * Creates the in memory binary image (document vectors, postings and
+	 * collection frequencies) from the inverted index and releases the maps.
+	 */
+	private void buildSearchIndex() {
+		try {
+			long phaseStart = System.nanoTime();
+			searchIndex = BinaryIndexWriter.build(index, docIds, classes, useStemming);
+			queryCache.invalidate();
+			metrics.addPhaseTime(IndexerMetrics.Phase.IMAGE_BUILD, System.nanoTime() - phaseStart);
+			openSearcher();
+		} catch (IOException e) {
+			logger.error("Cannot build the index image.", e);
+			System.exit(1);
+		}
+		index = null;
 	}
 
 	/**
-	 * Traverse the target directory and start
-	 * queue a parser run for each document we find.
+	 * Adds the documents of a directory tree or of a list of files
 	 * 
-	 * While doing that take the opportunity and count the documents,
-	 * and build the docId and classes lists.
+	 * @param directory - directory to traverse (or null)
+	 * @param files - files to add if there is no directory
+	 * @param pipeline - pipeline to parse the documents (null = parse later)
+	 * @throws InterruptedException
+	 */
+	private void addDocuments(File directory, List<File> files, IndexingPipeline pipeline)
+			throws InterruptedException {
+		if (directory != null) {
+			traverseDir(directory, pipeline);
+		}
+		else {
+			for (File file : files) {
+				addDocument(file, pipeline);
+			}
+		}
+	}
+
+	/**
+	 * Traverse the target directory and add
+	 * the documents we find.
 	 * 
 	 * @param currentFile
+	 * @param pipeline - pipeline to parse the documents (null = parse later)
+	 * @throws InterruptedException 
 	 */
-	private void traverseDir(File currentFile) {
+	private void traverseDir(File currentFile, IndexingPipeline pipeline) throws InterruptedException {
 		if (!currentFile.isDirectory()) {
-			executorService.execute(new Parser(currentFile, useStemming, mapOut));
-			docIds.add(currentFile.getParentFile().getName() + "/" + currentFile.getName());
-			classes.add(currentFile.getParentFile().getName()); //build a list of classes
-			numDocs++;
+			addDocument(currentFile, pipeline);
 		}
 		if (currentFile.list() != null) { 
 			for (String fileName : currentFile.list()) {
-				traverseDir(new File(currentFile, fileName));
+				traverseDir(new File(currentFile, fileName), pipeline);
+			}
+		}
+	}
+
+	/**
+	 * Adds a document to the collection. While doing that take the
+	 * opportunity and count the documents, and build the docId and
+	 * classes lists. The documents get their ordinal in the order
+	 * they are added.
+	 * 
+	 * @param file
+	 * @param pipeline - pipeline to parse the document (null = keep the
+	 *                   file in the documents list)
+	 * @throws InterruptedException 
+	 */
+	private void addDocument(File file, IndexingPipeline pipeline) throws InterruptedException {
+		if (pipeline != null) {
+			pipeline.add(file, numDocs);
+		}
+		else {
+			documents.add(file);
+		}
+		docIds.add(CollectionFiles.getDocId(file));
+		classes.add(CollectionFiles.getClassName(file)); //build a list of classes
+		numDocs++;
+	}
+
+	/**
+	 * Writes the index to the given file, the format is chosen by
+	 * the file extension (arff.gz or .idx)
+	 * 
+	 * @param filename
+	 */
+	public void writeIndex(String filename) {
+		if (searchIndex == null && shards != null) {
+			logger.error("A sharded index cannot be converted, build it again without -shards.");
+			System.exit(1);
+		}
+		if (searchIndex == null && segments != null) {
+			// Merge the segments into a single index
+			try {
+				searchIndex = segments.toBinaryIndex();
+			} catch (IOException e) {
+				logger.error("Cannot merge the segments.", e);
+				System.exit(1);
 			}
 		}
+		if (filename.endsWith(BINARY_EXTENSION)) {
+			buildBinary(filename);
+		}
+		else {
+			buildARFF(filename);
+		}
+	}
+
+	/**
+	 * Loads the index from the given file, the format is chosen by
+	 * the file extension (arff.gz or .idx), a directory contains
+	 * the segments of an incrementally updated index or the shards
+	 * of a sharded index
+	 * 
+	 * @param filename
+	 */
+	public void loadIndex(String filename) {
+		if (SegmentedIndex.isSegmentDirectory(filename)) {
+			readFromSegments(filename);
+		}
+		else if (ShardedIndex.isShardDirectory(filename)) {
+			readFromShards(filename);
+		}
+		else if (filename.endsWith(BINARY_EXTENSION)) {
+			readFromBinary(filename);
+		}
+		else {
+			readFromARFF(filename);
+		}
+	}
+
+	/**
+	 * Create a binary index file
+	 * 
+	 * @param filename
+	 */
+	public void buildBinary(String filename) {
+		try {
+			long phaseStart = System.nanoTime();
+			searchIndex.writeTo(filename);
+			metrics.addPhaseTime(IndexerMetrics.Phase.BINARY_WRITE, System.nanoTime() - phaseStart);
+			logger.info("Wrote binary index to " + filename);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Maps the index from a binary index file
+	 * 
+	 * @param filename
+	 */
+	public void readFromBinary(String filename) {
+		Long startTime = System.currentTimeMillis();
+		File f = new File(filename);
+		if (!f.exists()) {
+			System.err.println("Index File <" + filename + "> does not exist.");
+			System.exit(1);
+		}
+		try {
+			long phaseStart = System.nanoTime();
+			searchIndex = BinaryIndex.open(filename);
+			queryCache.invalidate();
+			openSearcher();
+			useStemming = searchIndex.hasStemming();
+			classes.addAll(searchIndex.getClasses());
+			numDocs = searchIndex.getNumDocs();
+			metrics.addPhaseTime(IndexerMetrics.Phase.BINARY_OPEN, System.nanoTime() - phaseStart);
+		} catch (IOException e) {
+			logger.error("Cannot open binary index <" + filename + ">.", e);
+			System.exit(1);
+		}
+		logger.info("Done mapping index from binary file in " + (System.currentTimeMillis() - startTime) + "ms ");
+	}
+
+	/**
+	 * Opens the segments of an incrementally updated index
+	 * 
+	 * @param directory
+	 */
+	public void readFromSegments(String directory) {
+		Long startTime = System.currentTimeMillis();
+		try {
+			segments = SegmentedIndex.open(directory, scorer);
+			queryCache.invalidate();
+			useStemming = segments.hasStemming();
+			if (useImpacts || usePruning) {
+				logger.warn("Segments are searched exhaustively, -impact and -prune are not used.");
+			}
+		} catch (IOException e) {
+			logger.error("Cannot open the segments in <" + directory + ">.", e);
+			System.exit(1);
+		}
+		logger.info("Done opening segments in " + (System.currentTimeMillis() - startTime) + "ms ");
+	}
+
+	/**
+	 * Opens the shards of a sharded index
+	 * 
+	 * @param directory
+	 */
+	public void readFromShards(String directory) {
+		Long startTime = System.currentTimeMillis();
+		try {
+			shards = ShardedIndex.open(directory, scorer, shardThreads);
+			queryCache.invalidate();
+			useStemming = shards.hasStemming();
+			classes.addAll(shards.getClasses());
+			numDocs = shards.getNumDocs();
+			if (useImpacts || usePruning) {
+				logger.warn("Shards are searched exhaustively, -impact and -prune are not used.");
+			}
+		} catch (IOException e) {
+			logger.error("Cannot open the shards in <" + directory + ">.", e);
+			System.exit(1);
+		}
+		logger.info("Done opening " + shards.getNumShards() + " shards in " + (System.currentTimeMillis() - startTime)
+				+ "ms ");
 	}
 
 	/**
@@ -174,40 +653,45 @@ public class Indexer {
 	 */
 	public void buildARFF(String filename) {
 		try {
-			ARFFWriter writer = new ARFFWriter(filename, "index");
-			String docClasses = "{";
-			boolean first = true;
-			for (String className : classes) {
-				if (first) {
-					docClasses += className;
-					first = false;
+			long phaseStart = System.nanoTime();
+			ARFFWriter writer = new ARFFWriter(filename, "index", maxThreads);
+			try {
+				String docClasses = "{";
+				boolean first = true;
+				for (String className : searchIndex.getClasses()) {
+					if (first) {
+						docClasses += className;
+						first = false;
+					}
+					else {
+						docClasses += ", " + className;
+					}
 				}
-				else {
-					docClasses += ", " + className;
+				writer.addAttribute("@documentClass@", docClasses + "}");
+				writer.addAttribute("@documentName@", "STRING");
+				writer.addAttribute("@hasStemming@", "NUMERIC");
+				for (int termId = 0; termId < searchIndex.getNumTerms(); termId++) {
+					writer.addAttribute(searchIndex.getTerm(termId), "NUMERIC");
 				}
-			}
-			writer.addAttribute("@documentClass@", docClasses + "}");
-			writer.addAttribute("@documentName@", "STRING");
-			writer.addAttribute("@hasStemming@", "NUMERIC");
-			for (String term : index.keySet()) {
-				writer.addAttribute(term, "NUMERIC");
-			}
-			writer.beginData();
-			for (String entry : documentVectors.keySet()) {
-				String[] tmp = entry.split("/");
-				writer.startRow();
-				writer.addConstantValue(true, 0, tmp[0]);
-				writer.addStringValue(false, 1, tmp[1]);
-				writer.addNumericValue(false, 2, this.useStemming ? 1 : 0);
-				TreeMap<Integer, Double> list = documentVectors.get(entry);
-				for (Integer idx : list.keySet()) {
-					// The first tree entries are class, name and the stemming attributes, so we have
-					// to add 3 to the index
-					writer.addNumericValue(false, idx + 3, list.get(idx).intValue());
+				writer.beginData();
+				for (int doc = 0; doc < searchIndex.getNumDocs(); doc++) {
+					String[] tmp = searchIndex.getDocId(doc).split("/");
+					writer.startRow();
+					writer.addConstantValue(true, 0, tmp[0]);
+					writer.addStringValue(false, 1, tmp[1]);
+					writer.addNumericValue(false, 2, this.useStemming ? 1 : 0);
+					for (int i = 0; i < searchIndex.getVectorLength(doc); i++) {
+						// The first tree entries are class, name and the stemming attributes, so we have
+						// to add 3 to the index
+						writer.addNumericValue(false, searchIndex.getVectorTerm(doc, i) + 3, searchIndex.getVectorTf(doc, i));
+					}
+					writer.endRow();
 				}
-				writer.endRow();
 			}
-			writer.close();
+			finally {
+				writer.close();
+			}
+			metrics.addPhaseTime(IndexerMetrics.Phase.ARFF_WRITE, System.nanoTime() - phaseStart);
 			logger.info("Wrote document vectors to " + filename);
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -228,76 +712,18 @@ public class Indexer {
 				System.err.println("ARFF File <" + filename + "> does not exist.");
 				System.exit(1);
 			}
-			GZIPInputStream gzin = new GZIPInputStream(new FileInputStream(f));
-			BufferedReader reader = new BufferedReader(new InputStreamReader(gzin));
-			String line;
-			
-			// Initialize maps
-			index = new ConcurrentHashMap<String, ArrayList<Posting>>();
-			documentVectors = new HashMap<String, TreeMap<Integer, Double>>();
-			HashMap<Integer, String> termMap = new HashMap<Integer, String>();
-			
-			
-			boolean inData = false; 
-			int  i = 3;
-			while ((line = reader.readLine()) != null) {
-				// Read the attributes ... we intentionally skip the class and name
-				if (!inData && line.startsWith("@ATTRIBUTE")) {
-					String[] tmp = line.split(" ");
-					if (!tmp[1].equals("\"@documentClass@\"") && !tmp[1].equals("\"@documentName@\"") && !tmp[1].equals("\"@hasStemming@\""))  {
-						String term = tmp[1].substring(1, tmp[1].length() - 1);
-						index.put(term, new ArrayList<Posting>());
-						termMap.put(i, term);
-						termIdMap.put(term, i - 3);
-						i++;
-					}
-				}
-				// Done with attributes?
-				else if (line.startsWith("@DATA")) {
-					inData = true;
-					continue;
-				}
-				// Data row: Parse and fill into the maps
-				if (inData) {
-					String docId;
-					line = line.substring(1, line.length() -1);
-					String[] attrs = line.split(", ");
-					docId = attrs[0].substring(2, attrs[0].length()) + "/" 
-							+ attrs[1].substring(3, attrs[1].length() - 1);
-					
-					useStemming = (attrs[2].substring(2).equals("1")) ? true : false;
-
-					classes.add(attrs[0].substring(2, attrs[0].length()));
-					
-					
-					for (i = 3; i < attrs.length; i++) {
-						String[] tmp = attrs[i].split(" ");
-						Integer idx = Integer.parseInt(tmp[0]);
-						Integer tf = new Double(tmp[1]).intValue();
-						Posting p = new Posting(docId);
-						p.setTf(tf);
-						index.get(termMap.get(idx)).add(p);
-						if (!documentVectors.containsKey(docId)) {
-							documentVectors.put(docId, new TreeMap<Integer, Double>());
-						}
-						documentVectors.get(docId).put(idx - 3, (double) tf);
-					}
-				}
-			}
-
-			reader.close();
-			
-			// Done reading now sort the posting lists
-			executorService = Executors.newFixedThreadPool(maxThreads);
-			for(String term: index.keySet()) {
-				executorService.execute(new SortThread(index, term));
-			}
-			// Wait for all threads to finish
-			waitForThreads();
-			
-			// Build cfMap
-			buildCfMap();
+			long phaseStart = System.nanoTime();
+			ARFFReader reader = new ARFFReader(maxThreads);
+			reader.read(f);
+			metrics.addPhaseTime(IndexerMetrics.Phase.ARFF_READ, System.nanoTime() - phaseStart);
+			index = reader.getIndex();
+			docIds.addAll(reader.getDocIds());
+			classes.addAll(reader.getClasses());
+			useStemming = reader.hasStemming();
 			
+			// The posting lists are sorted by doc already (rows are in doc order)
+			buildSearchIndex();
+			numDocs = searchIndex.getNumDocs();
 		}
 		catch (IOException e) {
 			e.printStackTrace();
@@ -306,55 +732,21 @@ public class Indexer {
 	}
 
 	/**
-	 * Computes the collection frequency for each term
-	 */
-	private void buildCfMap() {
-		cfMap = new ConcurrentHashMap<String, Integer>();
-		executorService = Executors.newFixedThreadPool(maxThreads);
-		for (String term : index.keySet()) {
-			executorService.execute(new CollectionFrequencyBuilder(cfMap, index.get(term), term));
-		}
-		// Wait for all threads to finish
-		waitForThreads();
-
-		numTokens = 0;
-		for (Integer cf : cfMap.values())  {
-			numTokens += cf;
-		}
-		
-	}
-	
-	/**
-	 * This is used for sorting the top 10 documents
-	 */
-	static class SortedSources implements Comparator<String> {
-
-		Map<String, Double> base;
-
-		public SortedSources(Map<String, Double> base) {
-			this.base = base;
-		}
-
-		@Override
-		public int compare(String a, String b) {
-			Double x = base.get(a);
-			Double y = base.get(b);
-			if (x.equals(y)) {
-				return b.compareTo(a);
-			}
-			return y.compareTo(x);
-		}
-
-	}
-
-	/**
-	 * Find the 10 most similar documents for a given query
+	 * Find the k most similar documents for a given query
 	 * 
 	 * @param query
-	 * @param file 
+	 * @param k
+	 * @return the documents ordered by their score (best first)
 	 */
-	public Map<String, Double> search(String[] query, ArgumentValidator validator) {
-		HashMap<String, Double> sources = new HashMap<String, Double>();
+	public List<SearchResult> search(String[] query, int k) {
+		long startTime = System.nanoTime();
+		List<SearchResult> result = evaluate(query, k);
+		metrics.addSearch(System.nanoTime() - startTime);
+		return result;
+	}
+
+	private List<SearchResult> evaluate(String[] query, int k) {
+		List<SearchResult> result = new ArrayList<SearchResult>(k);
 		HashSet<String> distinctTerms = new HashSet<String>();
 
 		Stemmer stemmer = new Stemmer();
@@ -363,71 +755,91 @@ public class Indexer {
 			term = term.toLowerCase();
 
 			if (useStemming) {
-				stemmer.add(term.toCharArray(), term.length());
-				stemmer.stem();
-				term = stemmer.toString();
+				term = stemCache.stem(term, stemmer);
 			}
 			
 			distinctTerms.add(term);
 		}
 		
-		// Compute sources
-		for (String doc : documentVectors.keySet()) {
-			TreeMap<Integer, Double> tfList = documentVectors.get(doc);
-			int length = 0;
-			/* Get document length (sum of tf values) */
-			for (Double tf : tfList.values()) {
-				length += tf;
+		// Same normalized query as before?
+		String key = QueryCache.getKey(distinctTerms, k);
+		long generation = queryCache.getGeneration();
+		List<SearchResult> cached = queryCache.get(key);
+		if (cached != null) {
+			return cached;
+		}
+		
+		if (segments != null) {
+			result = segments.search(distinctTerms, k);
+			queryCache.put(key, result, generation);
+			return result;
+		}
+		if (shards != null) {
+			result = shards.search(distinctTerms, k);
+			queryCache.put(key, result, generation);
+			return result;
+		}
+		
+		// Resolve the term ids and skip terms that do not exist in the collection
+		int[] termIds = new int[distinctTerms.size()];
+		int numTerms = 0;
+		for (String term : distinctTerms) {
+			int termId = searchIndex.getTermId(term);
+			if (termId != -1) {
+				termIds[numTerms++] = termId;
 			}
-			double pd = -1;
-			for (String term : distinctTerms) {
-				Integer termId;
-				/* Skip terms that do not exist in the collection */
-				if ((termId = termIdMap.get(term)) == null) {
-					continue;
+		}
+		termIds = Arrays.copyOf(termIds, numTerms);
+		Arrays.sort(termIds);
+
+		// Compute sources and select the top k
+		if (numTerms > 0) {
+			TopKSelector selector;
+			if (impactIndex != null) {
+				ImpactStatistics stats = new ImpactStatistics();
+				selector = impactIndex.search(termIds, k, maxPostings, maxMillis * 1000000, stats);
+				String log = String.format("Impact: %d terms, processed %d of %d postings (%.1f%%) in %d segments, %.3fms",
+						numTerms, stats.getPostingsProcessed(), stats.getPostings(),
+						100.0 * stats.getPostingsProcessed() / stats.getPostings(), stats.getSegmentsProcessed(),
+						stats.getNanos() / 1e6);
+				if (stats.getExhausted() != null) {
+					log += ", " + stats.getExhausted() + " budget used up";
 				}
-
-
-
-				/* Compute P(t|M_d) */
-				Double tf;
-				double ptd = -1;
-				if ((tf = tfList.get(termId)) != null) {
-
-					if (ptd == -1) {
-						ptd = tf / length * 1000;
-
-					}
-					else {
-						ptd *= tf / length * 1000;
+				if (impactCheck) {
+					TopKSelector exact = searcher.search(termIds, k);
+					int found = 0;
+					for (int i = 0; i < selector.size(); i++) {
+						if (exact.contains(selector.getDoc(i))) {
+							found++;
+						}
 					}
+					log += ", found " + found + " of the top " + exact.size();
 				}
-				
-				/* Compute P(t|M_c) */
-				Integer cf = cfMap.get(term);
-				if (ptd == -1) {
-					ptd = 0;
-				}
-				if (pd == -1) {
-					pd = LAMBDA * ptd + (1 - LAMBDA) * (double)cf / (double)numTokens * 1000;
+				logger.info(log);
+			}
+			else if (usePruning) {
+				PruningStatistics stats = new PruningStatistics();
+				selector = searcher.searchMaxScore(termIds, k, stats);
+				if (scorer.hasPrior()) {
+					logger.info("MaxScore: the model has a document prior, " + numTerms
+							+ " terms evaluated term-at-a-time without pruning");
 				}
 				else {
-					pd *= LAMBDA * ptd + (1 - LAMBDA) * (double)cf / (double)numTokens * 1000;
+					logger.info("MaxScore: " + numTerms + " terms, fully scored " + stats.getDocsScored() + " of "
+							+ searchIndex.getNumDocs() + " documents, scored " + stats.getPostingsScored()
+							+ " and skipped " + stats.getPostingsSkipped() + " postings");
 				}
 			}
-
-			if (pd != -1) {
-				sources.put(doc, pd);
+			else {
+				selector = searcher.search(termIds, k);
+			}
+			for (int i = 0; i < selector.size(); i++) {
+				result.add(new SearchResult(searchIndex.getDocId(selector.getDoc(i)), selector.getScore(i)));
 			}
 		}
 
-		// Sort documents by source to get the top 10
-		SortedSources ss = new SortedSources(sources);
-		TreeMap<String, Double> sorted = new TreeMap<String, Double>(ss);
-		sorted.putAll(sources);
-
-		return sorted;
-
+		queryCache.put(key, result, generation);
+		return result;
 	}
 
 }
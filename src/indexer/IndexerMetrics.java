@@ -0,0 +1,399 @@
+package indexer;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Where the time of the indexer goes: durations of the indexing phases,
+ * documents and tokens parsed, the queues of the running map phase and the
+ * latencies of the searches.
+ *
+ * The counters are updated once per phase (the parsers count into their map
+ * output partitions) and once per search, so they cost nothing in the inner
+ * loops. The metrics are exported over JMX (register()) and as a JSON
+ * report (toJson()).
+ *
+ * Search latencies are counted in a histogram with power of 2 buckets:
+ * bucket i holds the searches that took less than 2^i microseconds (and at
+ * least 2^(i-1)), percentiles are reported as the upper bound of their
+ * bucket (at most the maximum latency).
+ */
+public class IndexerMetrics implements IndexerMetricsMBean {
+
+	public static final String OBJECT_NAME = "indexer:type=IndexerMetrics";
+
+	private static final int NUM_BUCKETS = 40;
+
+	/**
+	 * Timed phases, a phase that runs more than once adds up
+	 */
+	public enum Phase {
+		MAP("map"), REDUCE("reduce"), IMAGE_BUILD("imageBuild"), EXTERNAL_BUILD("externalBuild"),
+		ARFF_WRITE("arffWrite"), ARFF_READ("arffRead"), BINARY_WRITE("binaryWrite"), BINARY_OPEN("binaryOpen");
+
+		private final String name;
+
+		private Phase(String name) {
+			this.name = name;
+		}
+	}
+
+	private AtomicLongArray phaseTimes = new AtomicLongArray(Phase.values().length);
+	private AtomicLong documents = new AtomicLong();
+	private AtomicLong tokens = new AtomicLong();
+
+	// Map phase that is running (or null) and its peak queue sizes
+	private volatile IndexingPipeline pipeline;
+	private volatile int peakReadQueue = 0;
+	private volatile int peakParseQueue = 0;
+
+	// Executor of the reduce phase while it runs (or null)
+	private volatile ExecutorService executor;
+
+	private AtomicLongArray latencies = new AtomicLongArray(NUM_BUCKETS);
+	private AtomicLong searches = new AtomicLong();
+	private AtomicLong searchTime = new AtomicLong();
+	private AtomicLong maxSearchTime = new AtomicLong();
+
+	private volatile QueryCache queryCache;
+
+	/**
+	 * Registers the metrics with the platform MBean server
+	 *
+	 * @throws JMException if metrics have already been registered
+	 */
+	public void register() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		server.registerMBean(this, new ObjectName(OBJECT_NAME));
+	}
+
+	/**
+	 * Adds the duration of a phase
+	 *
+	 * @param phase
+	 * @param nanos
+	 */
+	public void addPhaseTime(Phase phase, long nanos) {
+		phaseTimes.addAndGet(phase.ordinal(), nanos);
+	}
+
+	public long getPhaseMs(Phase phase) {
+		return phaseTimes.get(phase.ordinal()) / 1000000;
+	}
+
+	/**
+	 * Adds the documents and tokens parsed in a map phase
+	 *
+	 * @param documents
+	 * @param tokens
+	 */
+	public void addParsed(long documents, long tokens) {
+		this.documents.addAndGet(documents);
+		this.tokens.addAndGet(tokens);
+	}
+
+	/**
+	 * Sets the pipeline of the running map phase, null once it is done
+	 *
+	 * @param pipeline
+	 */
+	public void setPipeline(IndexingPipeline pipeline) {
+		IndexingPipeline done = this.pipeline;
+		if (done != null) {
+			peakReadQueue = Math.max(peakReadQueue, done.getPeakReadQueueSize());
+			peakParseQueue = Math.max(peakParseQueue, done.getPeakParseQueueSize());
+		}
+		this.pipeline = pipeline;
+	}
+
+	/**
+	 * Sets the executor of the running phase, null once it is done
+	 *
+	 * @param executor
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Sets the query cache whose counters are reported
+	 *
+	 * @param queryCache
+	 */
+	public void setQueryCache(QueryCache queryCache) {
+		this.queryCache = queryCache;
+	}
+
+	/**
+	 * Adds the latency of a search
+	 *
+	 * @param nanos
+	 */
+	public void addSearch(long nanos) {
+		long micros = nanos / 1000;
+		int bucket = Math.min(64 - Long.numberOfLeadingZeros(micros), NUM_BUCKETS - 1);
+		latencies.incrementAndGet(bucket);
+		searches.incrementAndGet();
+		searchTime.addAndGet(nanos);
+		long max;
+		while ((max = maxSearchTime.get()) < nanos && !maxSearchTime.compareAndSet(max, nanos)) {
+			// retry
+		}
+	}
+
+	@Override
+	public long getDocumentsIndexed() {
+		return documents.get();
+	}
+
+	@Override
+	public long getTokensIndexed() {
+		return tokens.get();
+	}
+
+	@Override
+	public double getDocumentsPerSecond() {
+		return perSecond(documents.get());
+	}
+
+	@Override
+	public double getTokensPerSecond() {
+		return perSecond(tokens.get());
+	}
+
+	@Override
+	public long getMapPhaseMs() {
+		return getPhaseMs(Phase.MAP);
+	}
+
+	@Override
+	public long getReducePhaseMs() {
+		return getPhaseMs(Phase.REDUCE);
+	}
+
+	@Override
+	public long getImageBuildMs() {
+		return getPhaseMs(Phase.IMAGE_BUILD);
+	}
+
+	@Override
+	public long getExternalBuildMs() {
+		return getPhaseMs(Phase.EXTERNAL_BUILD);
+	}
+
+	@Override
+	public long getArffWriteMs() {
+		return getPhaseMs(Phase.ARFF_WRITE);
+	}
+
+	@Override
+	public long getArffReadMs() {
+		return getPhaseMs(Phase.ARFF_READ);
+	}
+
+	@Override
+	public long getBinaryWriteMs() {
+		return getPhaseMs(Phase.BINARY_WRITE);
+	}
+
+	@Override
+	public long getBinaryOpenMs() {
+		return getPhaseMs(Phase.BINARY_OPEN);
+	}
+
+	@Override
+	public int getReadQueueSize() {
+		IndexingPipeline running = pipeline;
+		return running == null ? 0 : running.getReadQueueSize();
+	}
+
+	@Override
+	public int getParseQueueSize() {
+		IndexingPipeline running = pipeline;
+		return running == null ? 0 : running.getParseQueueSize();
+	}
+
+	@Override
+	public int getPeakReadQueueSize() {
+		IndexingPipeline running = pipeline;
+		return Math.max(peakReadQueue, running == null ? 0 : running.getPeakReadQueueSize());
+	}
+
+	@Override
+	public int getPeakParseQueueSize() {
+		IndexingPipeline running = pipeline;
+		return Math.max(peakParseQueue, running == null ? 0 : running.getPeakParseQueueSize());
+	}
+
+	@Override
+	public int getExecutorActiveThreads() {
+		ExecutorService running = executor;
+		return running instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) running).getActiveCount() : 0;
+	}
+
+	@Override
+	public int getExecutorQueueSize() {
+		ExecutorService running = executor;
+		return running instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) running).getQueue().size() : 0;
+	}
+
+	@Override
+	public long getSearches() {
+		return searches.get();
+	}
+
+	@Override
+	public double getMeanSearchMs() {
+		long n = searches.get();
+		return n == 0 ? 0 : searchTime.get() / 1e6 / n;
+	}
+
+	@Override
+	public double getMedianSearchMs() {
+		return getSearchPercentileMs(0.5);
+	}
+
+	@Override
+	public double getP90SearchMs() {
+		return getSearchPercentileMs(0.9);
+	}
+
+	@Override
+	public double getP99SearchMs() {
+		return getSearchPercentileMs(0.99);
+	}
+
+	@Override
+	public double getMaxSearchMs() {
+		return maxSearchTime.get() / 1e6;
+	}
+
+	@Override
+	public long[] getSearchLatencyHistogram() {
+		long[] histogram = new long[NUM_BUCKETS];
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			histogram[i] = latencies.get(i);
+		}
+		return histogram;
+	}
+
+	@Override
+	public long getQueryCacheHits() {
+		QueryCache cache = queryCache;
+		return cache == null ? 0 : cache.getHits();
+	}
+
+	@Override
+	public long getQueryCacheMisses() {
+		QueryCache cache = queryCache;
+		return cache == null ? 0 : cache.getMisses();
+	}
+
+	@Override
+	public long getQueryCacheEvictions() {
+		QueryCache cache = queryCache;
+		return cache == null ? 0 : cache.getEvictions();
+	}
+
+	@Override
+	public int getQueryCacheSize() {
+		QueryCache cache = queryCache;
+		return cache == null ? 0 : cache.getSize();
+	}
+
+	/**
+	 * @param p - between 0 and 1
+	 * @return the upper bound of the bucket of the percentile in ms, at most
+	 *         the maximum (0 if there have been no searches)
+	 */
+	public double getSearchPercentileMs(double p) {
+		long[] histogram = getSearchLatencyHistogram();
+		long n = 0;
+		for (long count : histogram) {
+			n += count;
+		}
+		long rank = (long) Math.ceil(p * n);
+		long seen = 0;
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			seen += histogram[i];
+			if (seen > 0 && seen >= rank) {
+				return Math.min((1L << i) / 1000.0, getMaxSearchMs());
+			}
+		}
+		return 0;
+	}
+
+	@Override
+	public String toJson() {
+		StringBuilder json = new StringBuilder();
+		json.append("{\n  \"documents\": ").append(getDocumentsIndexed());
+		json.append(",\n  \"tokens\": ").append(getTokensIndexed());
+		json.append(",\n  \"documentsPerSecond\": ").append(format(getDocumentsPerSecond()));
+		json.append(",\n  \"tokensPerSecond\": ").append(format(getTokensPerSecond()));
+		json.append(",\n  \"phasesMs\": {");
+		for (Phase phase : Phase.values()) {
+			json.append(phase.ordinal() == 0 ? "" : ",").append("\n    \"").append(phase.name).append("\": ")
+					.append(getPhaseMs(phase));
+		}
+		json.append("\n  }");
+		json.append(",\n  \"peakReadQueueSize\": ").append(getPeakReadQueueSize());
+		json.append(",\n  \"peakParseQueueSize\": ").append(getPeakParseQueueSize());
+		json.append(",\n  \"searches\": ").append(getSearches());
+		json.append(",\n  \"searchMs\": {\"mean\": ").append(format(getMeanSearchMs()));
+		json.append(", \"median\": ").append(format(getMedianSearchMs()));
+		json.append(", \"p90\": ").append(format(getP90SearchMs()));
+		json.append(", \"p99\": ").append(format(getP99SearchMs()));
+		json.append(", \"max\": ").append(format(getMaxSearchMs())).append("}");
+		json.append(",\n  \"queryCache\": {\"hits\": ").append(getQueryCacheHits());
+		json.append(", \"misses\": ").append(getQueryCacheMisses());
+		json.append(", \"evictions\": ").append(getQueryCacheEvictions());
+		json.append(", \"size\": ").append(getQueryCacheSize()).append("}");
+		json.append(",\n  \"searchLatencyHistogramUs\": {");
+		long[] histogram = getSearchLatencyHistogram();
+		boolean first = true;
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			if (histogram[i] > 0) {
+				json.append(first ? "" : ", ").append("\"<").append(1L << i).append("\": ").append(histogram[i]);
+				first = false;
+			}
+		}
+		json.append("}\n}\n");
+		return json.toString();
+	}
+
+	/**
+	 * Writes the JSON report to a file
+	 *
+	 * @param filename
+	 * @throws IOException
+	 */
+	public void writeJson(String filename) throws IOException {
+		OutputStream out = new FileOutputStream(filename);
+		try {
+			out.write(toJson().getBytes(BinaryIndex.UTF8));
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	private double perSecond(long count) {
+		long nanos = phaseTimes.get(Phase.MAP.ordinal()) + phaseTimes.get(Phase.EXTERNAL_BUILD.ordinal());
+		return nanos == 0 ? 0 : count * 1e9 / nanos;
+	}
+
+	private static String format(double value) {
+		return String.format("%.3f", value);
+	}
+
+}
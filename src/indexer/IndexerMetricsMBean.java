@@ -0,0 +1,68 @@
+package indexer;
+
+/**
+ * JMX view of the IndexerMetrics (times in ms)
+ */
+public interface IndexerMetricsMBean {
+
+	public long getDocumentsIndexed();
+
+	public long getTokensIndexed();
+
+	public double getDocumentsPerSecond();
+
+	public double getTokensPerSecond();
+
+	public long getMapPhaseMs();
+
+	public long getReducePhaseMs();
+
+	public long getImageBuildMs();
+
+	public long getExternalBuildMs();
+
+	public long getArffWriteMs();
+
+	public long getArffReadMs();
+
+	public long getBinaryWriteMs();
+
+	public long getBinaryOpenMs();
+
+	public int getReadQueueSize();
+
+	public int getParseQueueSize();
+
+	public int getPeakReadQueueSize();
+
+	public int getPeakParseQueueSize();
+
+	public int getExecutorActiveThreads();
+
+	public int getExecutorQueueSize();
+
+	public long getSearches();
+
+	public double getMeanSearchMs();
+
+	public double getMedianSearchMs();
+
+	public double getP90SearchMs();
+
+	public double getP99SearchMs();
+
+	public double getMaxSearchMs();
+
+	public long[] getSearchLatencyHistogram();
+
+	public long getQueryCacheHits();
+
+	public long getQueryCacheMisses();
+
+	public long getQueryCacheEvictions();
+
+	public int getQueryCacheSize();
+
+	public String toJson();
+
+}
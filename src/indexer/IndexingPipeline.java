@@ -0,0 +1,373 @@
+package indexer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import utils.StemCache;
+
+/**
+ * Map phase of the in-memory indexer as a pipeline of stages connected by
+ * bounded queues:
+ *
+ * traversal : the caller adds the files as it finds them (add())
+ * read      : reader threads read the files into memory, or one thread
+ *             issues asynchronous reads (AsynchronousFileChannel) with a
+ *             limited number of reads in flight
+ * parse     : parser threads tokenize, stem and count the terms of a
+ *             document and add its records to their partition of the map
+ *             output (the partial inversion, see MapOutput)
+ *
+ * Reading (waiting for the disk) and parsing overlap, and a stage blocks
+ * when the queue in front of the next stage is full, so only a few files
+ * per thread are held in memory however large the collection is. The end
+ * of the input is passed through the stages as a marker.
+ */
+public class IndexingPipeline {
+
+	private static Logger logger = Logger.getLogger(IndexingPipeline.class);
+
+	// Queue entries per consuming thread
+	private static final int QUEUE_PER_THREAD = 4;
+
+	private static final Set<OpenOption> READ = Collections.<OpenOption> singleton(StandardOpenOption.READ);
+
+	// End of the input
+	private static final Document END = new Document(null, -1);
+
+	/**
+	 * A file and (once it has been read) its content
+	 */
+	private static class Document {
+		final File file;
+		final int doc;
+		byte[] content;
+
+		Document(File file, int doc) {
+			this.file = file;
+			this.doc = doc;
+		}
+	}
+
+	private int readThreads;
+	private int asyncReads;
+	private int parseThreads;
+	private boolean useStemming;
+	private StemCache stemCache;
+	private MapOutput out;
+
+	private BlockingQueue<Document> files;
+	private BlockingQueue<Document> contents;
+	private AtomicInteger runningReaders;
+	// Peak queue sizes (the read queue only has one producer)
+	private volatile int peakReadQueue = 0;
+	private AtomicInteger peakParseQueue = new AtomicInteger();
+	private ExecutorService executor;
+	// Asynchronous reads: permits for the reads in flight and the threads
+	// of the channels (which also run the completion handlers)
+	private Semaphore reads;
+	private ExecutorService readExecutor;
+	private List<Future<?>> stages = new ArrayList<Future<?>>();
+
+	/**
+	 * Starts the reader and parser threads
+	 *
+	 * @param readThreads - number of threads reading files
+	 * @param asyncReads - number of asynchronous reads in flight (0 = use
+	 *            the reader threads)
+	 * @param parseThreads - number of threads parsing documents
+	 * @param useStemming
+	 * @param stemCache - stem cache shared by the parsers
+	 * @param out - map output
+	 */
+	public IndexingPipeline(int readThreads, int asyncReads, int parseThreads, boolean useStemming,
+			StemCache stemCache, MapOutput out) {
+		this.readThreads = asyncReads > 0 ? 1 : readThreads;
+		this.asyncReads = asyncReads;
+		this.parseThreads = parseThreads;
+		this.useStemming = useStemming;
+		this.stemCache = stemCache;
+		this.out = out;
+
+		files = new ArrayBlockingQueue<Document>(QUEUE_PER_THREAD * Math.max(this.readThreads, asyncReads));
+		contents = new ArrayBlockingQueue<Document>(QUEUE_PER_THREAD * parseThreads);
+		runningReaders = new AtomicInteger(this.readThreads);
+		executor = Executors.newFixedThreadPool(this.readThreads + parseThreads);
+		if (asyncReads > 0) {
+			reads = new Semaphore(asyncReads);
+			readExecutor = Executors.newFixedThreadPool(asyncReads);
+			stages.add(executor.submit(new AsyncReader()));
+		}
+		else {
+			for (int i = 0; i < readThreads; i++) {
+				stages.add(executor.submit(new Reader()));
+			}
+		}
+		for (int i = 0; i < parseThreads; i++) {
+			stages.add(executor.submit(new ParserStage()));
+		}
+	}
+
+	/**
+	 * Adds a document, blocks while the readers are busy
+	 *
+	 * @param file
+	 * @param doc - ordinal of the document
+	 * @throws InterruptedException
+	 */
+	public void add(File file, int doc) throws InterruptedException {
+		files.put(new Document(file, doc));
+		int size = files.size();
+		if (size > peakReadQueue) {
+			peakReadQueue = size;
+		}
+	}
+
+	/**
+	 * @return the number of files waiting for a reader
+	 */
+	public int getReadQueueSize() {
+		return files.size();
+	}
+
+	/**
+	 * @return the number of documents waiting for a parser
+	 */
+	public int getParseQueueSize() {
+		return contents.size();
+	}
+
+	public int getPeakReadQueueSize() {
+		return peakReadQueue;
+	}
+
+	public int getPeakParseQueueSize() {
+		return peakParseQueue.get();
+	}
+
+	/**
+	 * Waits until all added documents have been parsed
+	 *
+	 * @throws IOException if a stage failed
+	 * @throws InterruptedException
+	 */
+	public void finish() throws IOException, InterruptedException {
+		try {
+			for (int i = 0; i < readThreads; i++) {
+				files.put(END);
+			}
+			for (Future<?> stage : stages) {
+				try {
+					stage.get();
+				} catch (ExecutionException e) {
+					throw new IOException("Indexing pipeline failed.", e.getCause());
+				}
+			}
+		}
+		finally {
+			executor.shutdownNow();
+			if (readExecutor != null) {
+				readExecutor.shutdownNow();
+			}
+		}
+	}
+
+	/**
+	 * Reads files until the end marker, the last reader passes the end on
+	 * to the parsers
+	 */
+	private class Reader implements Runnable {
+		@Override
+		public void run() {
+			try {
+				Document document;
+				while ((document = files.take()) != END) {
+					try {
+						document.content = read(document.file);
+						putContent(document);
+					} catch (IOException e) {
+						logger.warn("Cannot read file " + document.file + ", skipping file!", e);
+					} catch (RuntimeException e) {
+						logger.warn("Cannot read file " + document.file + ", skipping file!", e);
+					}
+				}
+				if (runningReaders.decrementAndGet() == 0) {
+					for (int i = 0; i < parseThreads; i++) {
+						contents.put(END);
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Issues asynchronous reads until the end marker, blocks while all
+	 * permitted reads are in flight. Once the reads in flight have completed
+	 * the end is passed on to the parsers.
+	 */
+	private class AsyncReader implements Runnable {
+		@Override
+		public void run() {
+			try {
+				Document document;
+				while ((document = files.take()) != END) {
+					reads.acquire();
+					try {
+						AsynchronousFileChannel channel = AsynchronousFileChannel.open(document.file.toPath(), READ,
+								readExecutor);
+						new ReadHandler(channel).start(document);
+					} catch (IOException e) {
+						reads.release();
+						logger.warn("Cannot read file " + document.file + ", skipping file!", e);
+					} catch (RuntimeException e) {
+						reads.release();
+						logger.warn("Cannot read file " + document.file + ", skipping file!", e);
+					}
+				}
+				reads.acquire(asyncReads);
+				for (int i = 0; i < parseThreads; i++) {
+					contents.put(END);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Reads a whole file, passes it to the parsers and releases the permit
+	 * of the read
+	 */
+	private class ReadHandler implements CompletionHandler<Integer, Document> {
+
+		private AsynchronousFileChannel channel;
+		private ByteBuffer buffer;
+
+		ReadHandler(AsynchronousFileChannel channel) {
+			this.channel = channel;
+		}
+
+		void start(Document document) {
+			try {
+				buffer = ByteBuffer.allocate((int) channel.size());
+			} catch (IOException e) {
+				failed(e, document);
+				return;
+			}
+			channel.read(buffer, 0, document, this);
+		}
+
+		@Override
+		public void completed(Integer n, Document document) {
+			if (n >= 0 && buffer.hasRemaining()) {
+				channel.read(buffer, buffer.position(), document, this);
+				return;
+			}
+			try {
+				close();
+				document.content = buffer.hasRemaining() ? Arrays.copyOf(buffer.array(), buffer.position())
+						: buffer.array();
+				putContent(document);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			finally {
+				reads.release();
+			}
+		}
+
+		@Override
+		public void failed(Throwable e, Document document) {
+			close();
+			logger.warn("Cannot read file " + document.file + ", skipping file!", e);
+			reads.release();
+		}
+
+		private void close() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				logger.warn("Cannot close file.", e);
+			}
+		}
+	}
+
+	/**
+	 * Parses documents until the end marker, a document that cannot be
+	 * parsed is skipped so the stage keeps draining the queue
+	 */
+	private class ParserStage implements Runnable {
+		@Override
+		public void run() {
+			Tokenizer tokenizer = new Tokenizer();
+			try {
+				Document document;
+				while ((document = contents.take()) != END) {
+					try {
+						Parser parser = new Parser(document.file, document.doc, useStemming, stemCache, out);
+						parser.parse(tokenizer, document.content);
+					} catch (RuntimeException e) {
+						logger.warn("Cannot parse file " + document.file + ", skipping file!", e);
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Passes a document that has been read to the parsers
+	 */
+	private void putContent(Document document) throws InterruptedException {
+		contents.put(document);
+		int size = contents.size();
+		int peak;
+		while ((peak = peakParseQueue.get()) < size && !peakParseQueue.compareAndSet(peak, size)) {
+			// retry
+		}
+	}
+
+	private static byte[] read(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] content = new byte[(int) Math.max(file.length(), 16)];
+			int length = 0;
+			int n;
+			while ((n = in.read(content, length, content.length - length)) != -1) {
+				length += n;
+				if (length == content.length) {
+					content = Arrays.copyOf(content, content.length * 2);
+				}
+			}
+			return length == content.length ? content : Arrays.copyOf(content, length);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+}
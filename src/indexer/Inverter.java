@@ -1,16 +1,13 @@
 package indexer;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Vector;
 
 public class Inverter implements Runnable {
 
 	private String term;
-	private Map<String, ArrayList<Posting>> index;
-	private Map<String, Vector<String>> input;
+	private Map<String, PostingList> index;
+	private List<Map<String, PostingList>> input;
 
 	private int maxThreshold;
 	private int minThreshold;
@@ -18,15 +15,14 @@ public class Inverter implements Runnable {
 	/**
 	 * Inverter thread run in the "reduce" phase
 	 * 
-	 * @param input
+	 * @param input - partitions of the map output
 	 * @param index
 	 * @param term
 	 * @param minThreshold
 	 * @param maxThreshold
-	 * @param numDocs
 	 */
-	public Inverter(Map<String, Vector<String>> input,
-					Map<String, ArrayList<Posting>> index, String term,
+	public Inverter(List<Map<String, PostingList>> input,
+					Map<String, PostingList> index, String term,
 					int minThreshold, int maxThreshold) {
 
 		this.term = term;
@@ -38,27 +34,34 @@ public class Inverter implements Runnable {
 	
 	@Override
 	public void run() {
-		HashMap<String, Posting> pList = new HashMap<String, Posting>();
-		for (String docId : input.get(term)) {
-			if (!pList.containsKey(docId)) {
-				pList.put(docId, new Posting(docId));
+		// Collect the (doc, tf) records of all partitions, every document
+		// has been parsed by one thread so there is one record per document
+		int size = 0;
+		for (Map<String, PostingList> partition : input) {
+			PostingList pList = partition.get(term);
+			if (pList != null) {
+				size += pList.size();
 			}
-			pList.get(docId).increaseTf();
 		}
 
-		ArrayList<Posting> result = new ArrayList<Posting>(pList.size());
-		ArrayList<String> docIds = new ArrayList<String>(pList.keySet());
-		Collections.sort(docIds);
-		for (String docId : docIds) {
-			int tf = pList.get(docId).getTf();
-			if (tf < minThreshold)
+		PostingList result = new PostingList(size);
+		for (Map<String, PostingList> partition : input) {
+			PostingList pList = partition.get(term);
+			if (pList == null) {
 				continue;
-			if (maxThreshold != -1 && tf > maxThreshold)
-				continue;
-			result.add(pList.get(docId));
+			}
+			for (int i = 0; i < pList.size(); i++) {
+				int tf = pList.getTf(i);
+				if (tf < minThreshold)
+					continue;
+				if (maxThreshold != -1 && tf > maxThreshold)
+					continue;
+				result.add(pList.getDoc(i), tf);
+			}
 		}
+		result.sortByDoc();
 		
-		if (!result.isEmpty()) {
+		if (result.size() > 0) {
 			index.put(term, result);
 		}
 	}
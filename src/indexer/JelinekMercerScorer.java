@@ -0,0 +1,44 @@
+package indexer;
+
+/**
+ * Query likelihood with Jelinek-Mercer smoothing, in log space:
+ *
+ * log P(q|d) = sum_t log(LAMBDA * tf/|d| + (1 - LAMBDA) * P(t|C))
+ *            = sum_t log((1 - LAMBDA) * P(t|C))
+ *              + sum_{t in d} log(1 + LAMBDA * tf/|d| / ((1 - LAMBDA) * P(t|C)))
+ */
+public class JelinekMercerScorer extends Scorer {
+
+	/*
+	 * We use Jelinek-Mercer Smoothing with a small lambda value, because
+	 * we mostly have long queries (whole documents).
+	 */
+	private static final double LAMBDA = 0.2;
+
+	@Override
+	public double background(double probability, int df, int numDocs) {
+		return Math.log((1 - LAMBDA) * probability);
+	}
+
+	@Override
+	public double weight(double probability, int df, int numDocs) {
+		return LAMBDA / ((1 - LAMBDA) * probability);
+	}
+
+	@Override
+	public double norm(int length, double avgLength) {
+		return length;
+	}
+
+	@Override
+	public double score(int tf, double norm, double weight) {
+		/* P(t|M_d) = tf / length */
+		return Math.log(1 + weight * tf / norm);
+	}
+
+	@Override
+	public double bound(double weight, double maxTfRatio, int maxLength, double avgLength) {
+		return Math.log(1 + weight * maxTfRatio);
+	}
+
+}
@@ -1,7 +1,10 @@
 package indexer;
 
+import java.io.IOException;
 import java.util.Locale;
 
+import javax.management.JMException;
+
 import utils.TRECFormater;
 import args.ArgumentValidator;
 
@@ -19,23 +22,74 @@ public class Main {
 	
 		Indexer idx;
 		idx = new Indexer();	
+		idx.setPruning(validator.hasPruning());
+		idx.setImpactOrdering(validator.hasImpact());
+		idx.setImpactBudget(validator.getBudgetPostings(), validator.getBudgetMs());
+		idx.setImpactCheck(validator.hasImpactCheck());
+		idx.setMemoryBudget(validator.getMemoryBudget() * 1024L * 1024L);
+		idx.setStemCacheSize(validator.getStemCacheSize());
+		idx.setReadThreads(validator.getReaders());
+		idx.setAsyncReads(validator.getAsyncReads());
+		idx.setQueryCacheSize(validator.getQueryCacheSize());
+		idx.setScorer(validator.getScorer());
+		idx.setShardThreads(validator.getShardThreads());
+		try {
+			idx.getMetrics().register();
+		}
+		catch (JMException e) {
+			System.err.println("Cannot register the metrics with JMX: " + e.getMessage());
+		}
+		final String metricsFile = validator.getMetrics();
 		
 		// Create Index
-		if (validator.hasIndexer()) {
+		if (validator.hasIndexer() && validator.getShards() > 0) {
+			try {
+				ShardedIndex.create(validator.getIdexOut(), validator.getInput(), validator.getShards(),
+						validator.getPartition(), validator.hasStemming(), validator.getMinThreshold(),
+						validator.getMaxThreshold());
+			}
+			catch (IOException e) {
+				System.err.println("Cannot build the shards: " + e.getMessage());
+				System.exit(1);
+			}
+			idx.loadIndex(validator.getIdexOut());
+		}
+		else if (validator.hasIndexer()) {
 			idx.buildIndex(validator.getInput(), validator.getMinThreshold(), 
 					validator.getMaxThreshold(), validator.hasStemming());
-			idx.buildARFF(validator.getIdexOut());	
+			idx.writeIndex(validator.getIdexOut());	
+		}
+		// Update an incrementally built index
+		else if (validator.hasUpdate()) {
+			try {
+				SegmentedIndex segments = SegmentedIndex.create(validator.getIdexOut(), validator.hasStemming(),
+						validator.getMinThreshold(), validator.getMaxThreshold());
+				segments.update(validator.getInput());
+				// Wait for the merges
+				segments.close();
+			}
+			catch (IOException e) {
+				System.err.println("Cannot update the index: " + e.getMessage());
+				System.exit(1);
+			}
+			idx.loadIndex(validator.getIdexOut());
+		}
+		else {
+			idx.loadIndex(validator.getInput());
+			// Convert an existing index
+			if (validator.getIdexOut() != null) {
+				idx.writeIndex(validator.getIdexOut());
+			}
 		}
 		
 		// Search
 		if (validator.getQuery() != null) {
-			if (!validator.hasIndexer()) idx.readFromARFF(validator.getInput());
 			// We pass every word of the document as query
 			String[] query = null;
 			if (validator.isQueryPath()) {
 				try {
-					Tokenizer tk = new Tokenizer(validator.getQuery());
-					query = tk.getTokens();
+					Tokenizer tk = new Tokenizer();
+					query = tk.getTokens(validator.getQuery());
 				}
 				catch (Exception e) {
 					System.err.println("Cannot read query file.");
@@ -46,12 +100,59 @@ public class Main {
 				query = validator.getQuery().split(" ");
 			}
 			
-			TRECFormater.printResult(idx.search(query, validator), validator, 10);
+			TRECFormater.printResult(idx.search(query, 10), validator);
 	
 		}
 		
+		// Batch search (all topics with the same index)
+		if (validator.getBatch() != null) {
+			try {
+				BatchSearch batch = new BatchSearch(idx, 10, validator.getListSize());
+				batch.run(validator.getBatch(), validator.getThreads());
+			}
+			catch (IOException e) {
+				System.err.println("Cannot read batch file.");
+				System.exit(1);
+			}
+		}
+		
+		// Keep the index loaded and answer queries over HTTP, the metrics
+		// are written once the server is stopped
+		if (validator.hasServer()) {
+			final Indexer indexer = idx;
+			final SearchServer server = new SearchServer(idx, validator.getListSize(), validator.getThreads(), validator.getTimeout());
+			try {
+				server.start(validator.getPort());
+			}
+			catch (IOException e) {
+				System.err.println("Cannot start the server on port " + validator.getPort() + ".");
+				System.exit(1);
+			}
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					server.stop();
+					writeMetrics(indexer, metricsFile);
+				}
+			});
+		}
+		else {
+			writeMetrics(idx, metricsFile);
+		}
+		
 		// Both search results should be the same ..
 		
 	}
 
+	private static void writeMetrics(Indexer idx, String filename) {
+		if (filename != null) {
+			try {
+				idx.getMetrics().writeJson(filename);
+			}
+			catch (IOException e) {
+				System.err.println("Cannot write the metrics to " + filename + ".");
+			}
+		}
+	}
+
 }
@@ -0,0 +1,199 @@
+package indexer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Output of the map phase i.e. (term, doc, tf) records.
+ *
+ * Every parser thread writes into its own partition, so the threads never
+ * wait for each other (not even on frequent terms). The partitions are
+ * merged by the inverters in the reduce phase.
+ *
+ * The partitions belong to the threads as long as the map output is
+ * reachable, so a map output that is used for several blocks (SPIMI) is
+ * cleared between them instead of being replaced.
+ */
+public class MapOutput {
+
+	/*
+	 * Estimated heap usage of a new term (map entry, string and posting list),
+	 * of its UTF-8 copy while the terms are sorted (array slots and byte[]
+	 * header, plus the bytes) and of a record (two ints, the arrays grow by
+	 * doubling)
+	 */
+	private static final int TERM_SIZE = 200;
+	private static final int SORT_SIZE = 32;
+	private static final int RECORD_SIZE = 16;
+
+	/**
+	 * Map of a thread and the estimated size of it
+	 */
+	private static class Partition {
+		Map<String, PostingList> map = new HashMap<String, PostingList>();
+		long size = 0;
+		// Documents and tokens parsed by the thread
+		long documents = 0;
+		long tokens = 0;
+	}
+
+	private List<Partition> partitions = new CopyOnWriteArrayList<Partition>();
+
+	private ThreadLocal<Partition> partition = new ThreadLocal<Partition>() {
+		@Override
+		protected Partition initialValue() {
+			Partition p = new Partition();
+			partitions.add(p);
+			return p;
+		}
+	};
+
+	/**
+	 * Adds a record to the partition of the calling thread
+	 *
+	 * @param term
+	 * @param doc
+	 * @param tf
+	 */
+	public void add(String term, int doc, int tf) {
+		Partition p = partition.get();
+		PostingList pList = p.map.get(term);
+		if (pList == null) {
+			pList = new PostingList();
+			p.map.put(term, pList);
+			p.size += TERM_SIZE + SORT_SIZE + 3 * term.length();
+		}
+		pList.add(doc, tf);
+		p.size += RECORD_SIZE;
+	}
+
+	/**
+	 * Counts a parsed document in the partition of the calling thread
+	 *
+	 * @param tokens - number of tokens of the document
+	 */
+	public void addDocument(int tokens) {
+		Partition p = partition.get();
+		p.documents++;
+		p.tokens += tokens;
+	}
+
+	/**
+	 * Returns the number of parsed documents, must only be called once the
+	 * map phase is done
+	 *
+	 * @return
+	 */
+	public long getNumDocuments() {
+		long documents = 0;
+		for (Partition p : partitions) {
+			documents += p.documents;
+		}
+		return documents;
+	}
+
+	/**
+	 * Returns the number of parsed tokens, must only be called once the map
+	 * phase is done
+	 *
+	 * @return
+	 */
+	public long getNumTokens() {
+		long tokens = 0;
+		for (Partition p : partitions) {
+			tokens += p.tokens;
+		}
+		return tokens;
+	}
+
+	/**
+	 * Returns all partitions, must only be called once the map phase is done
+	 *
+	 * @return
+	 */
+	public List<Map<String, PostingList>> getPartitions() {
+		List<Map<String, PostingList>> maps = new ArrayList<Map<String, PostingList>>(partitions.size());
+		for (Partition p : partitions) {
+			maps.add(p.map);
+		}
+		return maps;
+	}
+
+	/**
+	 * Returns the estimated heap usage in bytes, must only be called while no
+	 * parser is running
+	 *
+	 * @return
+	 */
+	public long getEstimatedSize() {
+		long size = 0;
+		for (Partition p : partitions) {
+			size += p.size;
+		}
+		return size;
+	}
+
+	/**
+	 * Returns the UTF-8 bytes of all terms in byte order (see
+	 * BinaryIndexWriter.BYTE_ORDER), must only be called once the map phase
+	 * is done
+	 *
+	 * @return
+	 */
+	public byte[][] getSortedTerms() {
+		int n = 0;
+		for (Partition p : partitions) {
+			n += p.map.size();
+		}
+		byte[][] terms = new byte[n][];
+		n = 0;
+		for (Partition p : partitions) {
+			for (String term : p.map.keySet()) {
+				terms[n++] = term.getBytes(BinaryIndex.UTF8);
+			}
+		}
+		Arrays.sort(terms, BinaryIndexWriter.BYTE_ORDER);
+		// Terms of several partitions
+		int distinct = 0;
+		for (int i = 0; i < n; i++) {
+			if (distinct == 0 || !Arrays.equals(terms[i], terms[distinct - 1])) {
+				terms[distinct++] = terms[i];
+			}
+		}
+		return distinct == n ? terms : Arrays.copyOf(terms, distinct);
+	}
+
+	/**
+	 * Drops the records and counts of all partitions, the partitions of the
+	 * threads are reused for the next block. Must only be called while no
+	 * parser is running.
+	 */
+	public void clear() {
+		for (Partition p : partitions) {
+			p.map = new HashMap<String, PostingList>();
+			p.size = 0;
+			p.documents = 0;
+			p.tokens = 0;
+		}
+	}
+
+	/**
+	 * Returns all terms, must only be called once the map phase is done
+	 *
+	 * @return
+	 */
+	public Set<String> getTerms() {
+		Set<String> terms = new HashSet<String>();
+		for (Partition p : partitions) {
+			terms.addAll(p.map.keySet());
+		}
+		return terms;
+	}
+
+}
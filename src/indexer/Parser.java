@@ -1,71 +1,119 @@
 package indexer;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
-import java.util.Map;
-import java.util.Vector;
+import java.io.InputStreamReader;
 
 import org.apache.log4j.Logger;
 
+import utils.StemCache;
 import utils.Stemmer;
 
-public class Parser implements Runnable {
+public class Parser implements Runnable, Tokenizer.TokenHandler {
 
-	private Map<String, Vector<String>> out;
+	private MapOutput out;
 	private String filename;
 	private Stemmer stemmer = new Stemmer();
-	private String docId;
+	private StemCache stems;
+	private int doc;
 	private boolean useStemming;
 	
+	// Tokens of the document
+	private int tokens = 0;
+	
+	// Stem cache lookups and misses of the document
+	private int lookups = 0;
+	private int misses = 0;
+	
+	// Term frequencies of the document
+	private TermCounter counts = new TermCounter();
+	
+	// Lower case copy of the current token
+	private char[] word = new char[64];
+	
 	private Logger logger = Logger.getLogger(Parser.class);
 	
 	/**
 	 * Parser
 	 *  
 	 * @param file - File to index
+	 * @param doc - ordinal of the document
 	 * @param useStemming - use stemming?
-	 * @param out - output hashtable
+	 * @param stems - stem cache shared by the parsers
+	 * @param out - map output
 	 */
-	public Parser(File file, boolean useStemming, Map<String, Vector<String>> out) {
+	public Parser(File file, int doc, boolean useStemming, StemCache stems, MapOutput out) {
 		this.out = out;
+		this.stems = stems;
 		this.filename = file.getAbsolutePath();
-		this.docId = file.getParentFile().getName() + "/" + file.getName();
+		this.doc = doc;
 		this.useStemming = useStemming;
 	}
 	
 	@Override
 	public void run() {
-		Tokenizer tk;
 		try {
-			tk = new Tokenizer(filename);
-			for (String word : tk.getTokens()) {
-				if (word.length() <= 1) {
-					continue; // filter some nonsense
-				}
-				if (useStemming) {
-					word = stem(word);
-				}
-				word = word.toLowerCase();
-				if (!out.containsKey(word)) {
-					out.put(word, new Vector<String>());
-			}
-			out.get(word).add(docId);
-		}
+			new Tokenizer().tokenize(filename, this);
+			emit();
 		} catch (IOException e) {
 			logger.warn("Cannot read file " + filename + " for tokenizer, skipping file!", e);
 		}
 					
 	}
-
+	
 	/**
-	 * Returns the stemmed version of @word
+	 * Parses the content of the file that has already been read
 	 * 
-	 * @param word
-	 * @return
+	 * @param tokenizer - tokenizer of the calling thread
+	 * @param content - bytes of the file (default charset)
+	 */
+	public void parse(Tokenizer tokenizer, byte[] content) {
+		try {
+			tokenizer.tokenize(new InputStreamReader(new ByteArrayInputStream(content)), this);
+			emit();
+		} catch (IOException e) {
+			logger.warn("Cannot tokenize file " + filename + ", skipping file!", e);
+		}
+	}
+	
+	/**
+	 * Emits one (term, doc, tf) record per distinct term
 	 */
-	private String stem(String word) {
-		stemmer.add(word.toCharArray(), word.length());
-		stemmer.stem();
-		return stemmer.toString();
+	private void emit() {
+		for (int i = 0; i < counts.size(); i++) {
+			out.add(counts.getTerm(i), doc, counts.getCount(i));
+		}
+		out.addDocument(tokens);
+		if (useStemming) {
+			stems.addStatistics(lookups, misses);
+		}
+	}
+
+	@Override
+	public void token(char[] buffer, int offset, int length) {
+		if (length <= 1) {
+			return; // filter some nonsense
+		}
+		tokens++;
+		if (word.length < length) {
+			word = new char[length];
+		}
+		for (int i = 0; i < length; i++) {
+			word[i] = Character.toLowerCase(buffer[offset + i]);
+		}
+		if (useStemming) {
+			// The stemmer expects lower case words
+			String stem = stems.get(word, length);
+			if (stem == null) {
+				stem = stems.stem(word, length, stemmer);
+				misses++;
+			}
+			lookups++;
+			counts.add(stem);
+		}
+		else {
+			counts.add(word, 0, length);
+		}
 	}
 }
@@ -0,0 +1,93 @@
+package indexer;
+
+import java.util.Arrays;
+
+/**
+ * Posting list stored as parallel primitive arrays of document ordinals
+ * and term frequencies
+ */
+public class PostingList {
+
+	private int[] docs;
+	private int[] tfs;
+	private int size = 0;
+
+	public PostingList() {
+		this(4);
+	}
+
+	public PostingList(int capacity) {
+		docs = new int[Math.max(capacity, 1)];
+		tfs = new int[docs.length];
+	}
+
+	/**
+	 * Appends a posting
+	 *
+	 * @param doc
+	 * @param tf
+	 */
+	public void add(int doc, int tf) {
+		if (size == docs.length) {
+			docs = Arrays.copyOf(docs, size * 2);
+			tfs = Arrays.copyOf(tfs, size * 2);
+		}
+		docs[size] = doc;
+		tfs[size] = tf;
+		size++;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getDoc(int i) {
+		return docs[i];
+	}
+
+	public int getTf(int i) {
+		return tfs[i];
+	}
+
+	/**
+	 * Returns the collection frequency (sum of the tf values)
+	 *
+	 * @return
+	 */
+	public int getCf() {
+		int cf = 0;
+		for (int i = 0; i < size; i++) {
+			cf += tfs[i];
+		}
+		return cf;
+	}
+
+	public boolean isSortedByDoc() {
+		for (int i = 1; i < size; i++) {
+			if (docs[i - 1] > docs[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Sorts the postings by document ordinal (the ordinals and tf values are
+	 * packed into longs, so this is a plain primitive sort)
+	 */
+	public void sortByDoc() {
+		if (isSortedByDoc()) {
+			return;
+		}
+		long[] packed = new long[size];
+		for (int i = 0; i < size; i++) {
+			packed[i] = ((long) docs[i] << 32) | (tfs[i] & 0xffffffffL);
+		}
+		Arrays.sort(packed);
+		for (int i = 0; i < size; i++) {
+			docs[i] = (int) (packed[i] >>> 32);
+			tfs[i] = (int) packed[i];
+		}
+	}
+
+}
@@ -0,0 +1,298 @@
+package indexer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes the compressed posting list of a term in the binary index.
+ *
+ * The postings are split into blocks of BLOCK_SIZE postings. A block stores
+ * the document gaps (the first gap of a term is relative to -1, the first
+ * one of a block to the last document of the previous block) and the tf
+ * values, both minus 1 and bit packed with the smallest width that fits all
+ * values of the block. Unlike variable-byte codes this needs no branch per
+ * value (the values are read a long at a time), and the tf values of a block
+ * take no space at all if they are all 1.
+ *
+ * The skip table in front of the blocks holds the last document of every
+ * block (except the last one) and the offset of the following block, so
+ * advance() can jump over whole blocks without decoding them:
+ *
+ * skip table : (last doc, offset of the next block) per block - 1
+ * blocks     : (gap bits, tf bits, packed gaps - 1, packed tfs - 1) per block
+ *
+ * Offsets are relative to the start of the skip table, a term with at most
+ * BLOCK_SIZE postings has no skip table. Values are packed big endian and
+ * read as whole longs, so the postings section is followed by PADDING bytes.
+ */
+public class PostingsCursor {
+
+	public static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+	static final int BLOCK_SIZE = 128;
+	static final int SKIP_ENTRY_SIZE = 8;
+	static final int BLOCK_HEADER_SIZE = 2;
+	static final int PADDING = 8;
+
+	private ByteBuffer buffer;
+	private int start;
+	private int df;
+	private int numBlocks;
+
+	// Position of the next block header
+	private int pos;
+	private int index = -1;
+	private int doc = -1;
+	private int tf;
+
+	private PackedValues gaps = new PackedValues();
+	private PackedValues tfs = new PackedValues();
+
+	/**
+	 * Reads bit packed values of the current block
+	 */
+	private static class PackedValues {
+		private ByteBuffer buffer;
+		private int offset;
+		private int bits;
+		private long mask;
+		private long word;
+		private int available;
+
+		void reset(ByteBuffer buffer, int offset, int bits) {
+			this.buffer = buffer;
+			this.offset = offset;
+			this.bits = bits;
+			mask = (1L << bits) - 1;
+			word = buffer.getLong(offset);
+			available = 64;
+		}
+
+		int next() {
+			if (available >= bits) {
+				available -= bits;
+				return (int) ((word >>> available) & mask);
+			}
+			// The value continues in the next long
+			offset += 8;
+			int missing = bits - available;
+			long high = (word & ((1L << available) - 1)) << missing;
+			word = buffer.getLong(offset);
+			available = 64 - missing;
+			return (int) (high | (word >>> available));
+		}
+	}
+
+	/**
+	 * @param buffer - index image
+	 * @param start - position of the postings of the term
+	 * @param df - number of postings
+	 */
+	PostingsCursor(ByteBuffer buffer, int start, int df) {
+		this.buffer = buffer;
+		reset(start, df);
+	}
+
+	/**
+	 * Moves the cursor to the postings of another term of the same index
+	 *
+	 * @param start - position of the postings of the term
+	 * @param df - number of postings
+	 */
+	void reset(int start, int df) {
+		this.start = start;
+		this.df = df;
+		numBlocks = getNumBlocks(df);
+		pos = start + (numBlocks - 1) * SKIP_ENTRY_SIZE;
+		index = -1;
+		doc = -1;
+	}
+
+	boolean isCursorOf(ByteBuffer buffer) {
+		return this.buffer == buffer;
+	}
+
+	/**
+	 * Moves to the next posting
+	 *
+	 * @return false if there are no more postings
+	 */
+	public boolean next() {
+		if (index + 1 >= df) {
+			index = df;
+			doc = NO_MORE_DOCS;
+			return false;
+		}
+		index++;
+		if (index % BLOCK_SIZE == 0) {
+			readBlockHeader();
+		}
+		doc += gaps.next() + 1;
+		tf = tfs.next() + 1;
+		return true;
+	}
+
+	/**
+	 * Moves to the first posting with a document >= target, blocks whose last
+	 * document is smaller than the target are skipped
+	 *
+	 * @param target
+	 * @return false if there is no such posting
+	 */
+	public boolean advance(int target) {
+		if (doc >= target) {
+			return doc != NO_MORE_DOCS;
+		}
+		int block = Math.max(index, 0) / BLOCK_SIZE;
+		while (block < numBlocks - 1) {
+			int entry = start + block * SKIP_ENTRY_SIZE;
+			int lastDoc = buffer.getInt(entry);
+			if (lastDoc >= target) {
+				break;
+			}
+			// Continue with the header of the next block
+			doc = lastDoc;
+			pos = start + buffer.getInt(entry + 4);
+			block++;
+			index = block * BLOCK_SIZE - 1;
+		}
+		while (next()) {
+			if (doc >= target) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the current document (NO_MORE_DOCS once the postings are
+	 *         exhausted)
+	 */
+	public int doc() {
+		return doc;
+	}
+
+	public int tf() {
+		return tf;
+	}
+
+	/**
+	 * @return the number of postings before the current one (df once the
+	 *         postings are exhausted)
+	 */
+	public int position() {
+		return index;
+	}
+
+	/**
+	 * Starts the block at pos, index is the first posting of the block
+	 */
+	private void readBlockHeader() {
+		int n = Math.min(BLOCK_SIZE, df - index);
+		int gapBits = buffer.get(pos);
+		int tfBits = buffer.get(pos + 1);
+		int gapStart = pos + BLOCK_HEADER_SIZE;
+		int tfStart = gapStart + getPackedSize(n, gapBits);
+		pos = tfStart + getPackedSize(n, tfBits);
+		gaps.reset(buffer, gapStart, gapBits);
+		tfs.reset(buffer, tfStart, tfBits);
+	}
+
+	static int getNumBlocks(int df) {
+		return (df + BLOCK_SIZE - 1) / BLOCK_SIZE;
+	}
+
+	/**
+	 * Returns the encoded size of a posting list
+	 *
+	 * @param pList - postings sorted by doc
+	 * @return
+	 */
+	static long getEncodedSize(PostingList pList) {
+		int numBlocks = getNumBlocks(pList.size());
+		long size = (long) (numBlocks - 1) * SKIP_ENTRY_SIZE;
+		int prev = -1;
+		for (int block = 0; block < numBlocks; block++) {
+			int from = block * BLOCK_SIZE;
+			int to = Math.min(from + BLOCK_SIZE, pList.size());
+			int maxGap = 0;
+			int maxTf = 0;
+			for (int i = from; i < to; i++) {
+				maxGap = Math.max(maxGap, pList.getDoc(i) - prev - 1);
+				maxTf = Math.max(maxTf, pList.getTf(i) - 1);
+				prev = pList.getDoc(i);
+			}
+			size += BLOCK_HEADER_SIZE + getPackedSize(to - from, getBits(maxGap))
+					+ getPackedSize(to - from, getBits(maxTf));
+		}
+		return size;
+	}
+
+	/**
+	 * Encodes a posting list
+	 *
+	 * @param buffer - index image
+	 * @param start - position of the postings of the term
+	 * @param pList - postings sorted by doc
+	 * @return the position behind the postings
+	 */
+	static int encode(ByteBuffer buffer, int start, PostingList pList) {
+		int numBlocks = getNumBlocks(pList.size());
+		int pos = start + (numBlocks - 1) * SKIP_ENTRY_SIZE;
+		int[] gaps = new int[BLOCK_SIZE];
+		int[] tfs = new int[BLOCK_SIZE];
+		int prev = -1;
+		for (int block = 0; block < numBlocks; block++) {
+			int from = block * BLOCK_SIZE;
+			int n = Math.min(BLOCK_SIZE, pList.size() - from);
+			int maxGap = 0;
+			int maxTf = 0;
+			for (int i = 0; i < n; i++) {
+				gaps[i] = pList.getDoc(from + i) - prev - 1;
+				tfs[i] = pList.getTf(from + i) - 1;
+				maxGap = Math.max(maxGap, gaps[i]);
+				maxTf = Math.max(maxTf, tfs[i]);
+				prev = pList.getDoc(from + i);
+			}
+			int gapBits = getBits(maxGap);
+			int tfBits = getBits(maxTf);
+			buffer.put(pos, (byte) gapBits);
+			buffer.put(pos + 1, (byte) tfBits);
+			pos = pack(buffer, pos + BLOCK_HEADER_SIZE, gaps, n, gapBits);
+			pos = pack(buffer, pos, tfs, n, tfBits);
+			if (block < numBlocks - 1) {
+				buffer.putInt(start + block * SKIP_ENTRY_SIZE, prev);
+				buffer.putInt(start + block * SKIP_ENTRY_SIZE + 4, pos - start);
+			}
+		}
+		return pos;
+	}
+
+	/**
+	 * @return the number of bits needed for the (non negative) value
+	 */
+	private static int getBits(int value) {
+		return 32 - Integer.numberOfLeadingZeros(value);
+	}
+
+	private static int getPackedSize(int n, int bits) {
+		return (int) (((long) n * bits + 7) >>> 3);
+	}
+
+	private static int pack(ByteBuffer buffer, int pos, int[] values, int n, int bits) {
+		long pending = 0;
+		int pendingBits = 0;
+		for (int i = 0; i < n; i++) {
+			pending = (pending << bits) | (values[i] & ((1L << bits) - 1));
+			pendingBits += bits;
+			while (pendingBits >= 8) {
+				pendingBits -= 8;
+				buffer.put(pos++, (byte) (pending >>> pendingBits));
+			}
+		}
+		if (pendingBits > 0) {
+			buffer.put(pos++, (byte) (pending << (8 - pendingBits)));
+		}
+		return pos;
+	}
+
+}
@@ -0,0 +1,41 @@
+package indexer;
+
+/**
+ * Counters collected while evaluating a query with dynamic pruning
+ */
+public class PruningStatistics {
+
+	// Documents whose score has been computed completely
+	private int docsScored = 0;
+
+	// Postings that have been decoded and scored
+	private long postingsScored = 0;
+
+	// Postings that have been skipped without scoring them
+	private long postingsSkipped = 0;
+
+	public int getDocsScored() {
+		return docsScored;
+	}
+
+	public void increaseDocsScored() {
+		docsScored++;
+	}
+
+	public long getPostingsScored() {
+		return postingsScored;
+	}
+
+	public void increasePostingsScored() {
+		postingsScored++;
+	}
+
+	public long getPostingsSkipped() {
+		return postingsSkipped;
+	}
+
+	public void addPostingsSkipped(long skipped) {
+		postingsSkipped += skipped;
+	}
+
+}
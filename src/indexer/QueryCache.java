@@ -0,0 +1,153 @@
+package indexer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of search results, shared by all search threads.
+ *
+ * The key is the normalized query: the distinct lower case (and stemmed)
+ * terms in sorted order and k, so word order, case, repeated words and
+ * words with the same stem hit the same entry. How often a term occurs in
+ * the query does not matter because the score only depends on the distinct
+ * terms.
+ *
+ * Results belong to a generation of the index. invalidate() drops all
+ * entries and starts a new generation, a search that started before that
+ * cannot store its (stale) result afterwards.
+ */
+public class QueryCache {
+
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	private final int capacity;
+	private final LinkedHashMap<String, SearchResult[]> entries;
+
+	private long generation = 0;
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	/**
+	 * @param capacity - number of cached results (0 = no caching)
+	 */
+	public QueryCache(int capacity) {
+		this.capacity = capacity;
+		entries = new LinkedHashMap<String, SearchResult[]>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, SearchResult[]> eldest) {
+				if (size() > QueryCache.this.capacity) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Builds the key of a normalized query
+	 *
+	 * @param terms - distinct normalized terms
+	 * @param k
+	 * @return
+	 */
+	public static String getKey(Collection<String> terms, int k) {
+		String[] sorted = terms.toArray(new String[terms.size()]);
+		Arrays.sort(sorted);
+		StringBuilder key = new StringBuilder();
+		key.append(k);
+		for (String term : sorted) {
+			key.append(' ').append(term);
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Returns a cached result
+	 *
+	 * @param key
+	 * @return a copy of the result or null if it is not cached
+	 */
+	public synchronized List<SearchResult> get(String key) {
+		if (capacity == 0) {
+			return null;
+		}
+		SearchResult[] result = entries.get(key);
+		if (result == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return new ArrayList<SearchResult>(Arrays.asList(result));
+	}
+
+	/**
+	 * Caches a result unless the index has changed since the search started
+	 *
+	 * @param key
+	 * @param result
+	 * @param generation - generation when the search started
+	 */
+	public synchronized void put(String key, List<SearchResult> result, long generation) {
+		if (capacity > 0 && generation == this.generation) {
+			entries.put(key, result.toArray(new SearchResult[result.size()]));
+		}
+	}
+
+	/**
+	 * @return the current generation, to be passed to put()
+	 */
+	public synchronized long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Drops all results, must be called whenever the index changes
+	 */
+	public synchronized void invalidate() {
+		entries.clear();
+		generation++;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public synchronized int getSize() {
+		return entries.size();
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return hits / lookups (0 if there have been no lookups)
+	 */
+	public synchronized double getHitRate() {
+		long n = hits + misses;
+		return n == 0 ? 0 : (double) hits / n;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%d hits, %d misses (%.1f%% hits), %d evictions, %d of %d entries used", hits, misses,
+				100 * getHitRate(), evictions, entries.size(), capacity);
+	}
+
+}
@@ -0,0 +1,121 @@
+package indexer;
+
+/**
+ * Retrieval model used by the Searcher.
+ *
+ * A model scores a document as the sum of
+ *
+ * background : a score per query term that is the same for every document
+ * prior      : a score per query term that only depends on the document
+ *              length (if hasPrior())
+ * score      : a score per query term the document contains
+ *
+ * The term values (background, weight and bound) only depend on the
+ * collection statistics of the term and the document values (norm and prior)
+ * only on the document length, so the Searcher computes them once when the
+ * index is loaded and the document loop only calls score().
+ */
+public abstract class Scorer {
+
+	public static final String DEFAULT = "jm";
+
+	/**
+	 * Creates a model by its name
+	 *
+	 * @param name - jm, dirichlet, bm25 or tfidf
+	 * @return
+	 * @throws IllegalArgumentException if there is no such model
+	 */
+	public static Scorer create(String name) {
+		if (name.equals("jm")) {
+			return new JelinekMercerScorer();
+		}
+		if (name.equals("dirichlet")) {
+			return new DirichletScorer();
+		}
+		if (name.equals("bm25")) {
+			return new BM25Scorer();
+		}
+		if (name.equals("tfidf")) {
+			return new TfIdfScorer();
+		}
+		throw new IllegalArgumentException("Unknown scorer " + name + ".");
+	}
+
+	/**
+	 * @param name
+	 * @return true if create() knows the model
+	 */
+	public static boolean exists(String name) {
+		return name.equals("jm") || name.equals("dirichlet") || name.equals("bm25") || name.equals("tfidf");
+	}
+
+	/**
+	 * Score of a query term that every document gets
+	 *
+	 * @param probability - collection probability P(t|C) = cf/|C|
+	 * @param df - document frequency
+	 * @param numDocs - number of documents of the collection
+	 * @return
+	 */
+	public abstract double background(double probability, int df, int numDocs);
+
+	/**
+	 * Weight of a query term that is passed to score()
+	 *
+	 * @param probability - collection probability P(t|C) = cf/|C|
+	 * @param df - document frequency
+	 * @param numDocs - number of documents of the collection
+	 * @return
+	 */
+	public abstract double weight(double probability, int df, int numDocs);
+
+	/**
+	 * Length normalization of a document that is passed to score()
+	 *
+	 * @param length - document length
+	 * @param avgLength - average document length of the collection
+	 * @return
+	 */
+	public abstract double norm(int length, double avgLength);
+
+	/**
+	 * Score of a query term for a document that contains it
+	 *
+	 * @param tf
+	 * @param norm - norm() of the document
+	 * @param weight - weight() of the term
+	 * @return
+	 */
+	public abstract double score(int tf, double norm, double weight);
+
+	/**
+	 * Upper bound of score() over the postings of a term (for MaxScore)
+	 *
+	 * @param weight - weight() of the term
+	 * @param maxTfRatio - maximum tf / length of the term
+	 * @param maxLength - maximum document length of the collection
+	 * @param avgLength - average document length of the collection
+	 * @return
+	 */
+	public abstract double bound(double weight, double maxTfRatio, int maxLength, double avgLength);
+
+	/**
+	 * @return true if the score depends on the document length even for
+	 *         documents that contain none of the query terms
+	 */
+	public boolean hasPrior() {
+		return false;
+	}
+
+	/**
+	 * Score of a query term that depends on the document only
+	 *
+	 * @param length - document length
+	 * @return
+	 */
+	public double prior(int length) {
+		return 0;
+	}
+
+}
@@ -0,0 +1,37 @@
+package indexer;
+
+import java.util.Comparator;
+
+/**
+ * A ranked document
+ */
+public class SearchResult {
+
+	/**
+	 * Order of a ranking: score, then docId (descending)
+	 */
+	public static final Comparator<SearchResult> RANKING = new Comparator<SearchResult>() {
+		@Override
+		public int compare(SearchResult a, SearchResult b) {
+			int cmp = Double.compare(b.getScore(), a.getScore());
+			return cmp != 0 ? cmp : b.getDocId().compareTo(a.getDocId());
+		}
+	};
+
+	private String docId;
+	private double score;
+
+	public SearchResult(String docId, double score) {
+		this.docId = docId;
+		this.score = score;
+	}
+
+	public String getDocId() {
+		return docId;
+	}
+
+	public double getScore() {
+		return score;
+	}
+
+}
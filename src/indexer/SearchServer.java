@@ -0,0 +1,293 @@
+package indexer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import utils.TRECFormater;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Answers queries over HTTP with an index that stays loaded.
+ *
+ * The server only listens on the loopback interface:
+ *
+ * GET  /search?q=word1+word2&k=10&t=1 : top k as TREC lines
+ * POST /search?k=10&t=1              : same, the body is a query document
+ * GET  /health                       : "OK"
+ * GET  /stats                        : counters as JSON
+ *
+ * Like in the CLI the q parameter is split at spaces, while a posted document
+ * is tokenized the same way as a query file.
+ *
+ * Queries are run by a fixed number of search threads with a bounded queue.
+ * A request is answered with 503 if the queue is full and with 504 if the
+ * query does not finish within the timeout (the query itself still runs to
+ * its end, the search is not interruptible).
+ */
+public class SearchServer {
+
+	private static Logger logger = Logger.getLogger(SearchServer.class);
+
+	/*
+	 * Queued queries per search thread
+	 */
+	private static final int QUEUE_PER_THREAD = 16;
+
+	private static final int MAX_K = 1000;
+
+	// Largest POST body (query document) in bytes
+	private static final int MAX_BODY = 1024 * 1024;
+
+	private Indexer indexer;
+	private String listSize;
+	private long timeout;
+	private int numThreads;
+
+	private HttpServer server;
+	private ExecutorService handlerPool;
+	private ThreadPoolExecutor searchPool;
+	private long startTime;
+
+	private AtomicLong requests = new AtomicLong();
+	private AtomicLong rejected = new AtomicLong();
+	private AtomicLong timeouts = new AtomicLong();
+	private AtomicLong errors = new AtomicLong();
+	private AtomicLong searches = new AtomicLong();
+	private AtomicLong searchTime = new AtomicLong();
+
+	/**
+	 * @param indexer - with a loaded index
+	 * @param listSize - name of the run (used in the TREC output)
+	 * @param numThreads - number of search threads
+	 * @param timeout - request timeout in ms
+	 */
+	public SearchServer(Indexer indexer, String listSize, int numThreads, long timeout) {
+		this.indexer = indexer;
+		this.listSize = listSize;
+		this.numThreads = numThreads;
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Starts the server on localhost
+	 *
+	 * @param port - 0 picks a free port
+	 * @throws IOException
+	 */
+	public void start(int port) throws IOException {
+		int queueSize = QUEUE_PER_THREAD * numThreads;
+		searchPool = new ThreadPoolExecutor(numThreads, numThreads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueSize));
+		// More handler threads than search slots, so requests that do not fit
+		// into the queue are rejected right away instead of waiting for a handler
+		handlerPool = Executors.newFixedThreadPool(2 * (numThreads + queueSize));
+
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.setExecutor(handlerPool);
+		server.createContext("/search", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				handleSearch(exchange);
+			}
+		});
+		server.createContext("/health", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				send(exchange, 200, "OK\n", "text/plain");
+			}
+		});
+		server.createContext("/stats", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				send(exchange, 200, getStats(), "application/json");
+			}
+		});
+		server.start();
+		startTime = System.currentTimeMillis();
+		logger.info("Server listening on " + server.getAddress() + " with " + numThreads + " search threads");
+	}
+
+	/**
+	 * @return the port the server listens on
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Stops the server, running requests get one second to finish
+	 */
+	public void stop() {
+		server.stop(1);
+		searchPool.shutdownNow();
+		handlerPool.shutdownNow();
+		logger.info("Server stopped");
+	}
+
+	private void handleSearch(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		try {
+			Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+			String[] terms = null;
+			if ("POST".equals(exchange.getRequestMethod())) {
+				String body = readBody(exchange.getRequestBody());
+				if (body == null) {
+					send(exchange, 413, "Query larger than " + MAX_BODY + " bytes.\n", "text/plain");
+					return;
+				}
+				terms = new Tokenizer().getTokens(new StringReader(body));
+			}
+			else if ("GET".equals(exchange.getRequestMethod())) {
+				String text = params.get("q");
+				terms = text == null || text.trim().isEmpty() ? new String[0] : text.trim().split(" ");
+			}
+			else {
+				send(exchange, 405, "Use GET or POST.\n", "text/plain");
+				return;
+			}
+			if (terms.length == 0) {
+				send(exchange, 400, "Missing query.\n", "text/plain");
+				return;
+			}
+			final int k = params.containsKey("k") ? Integer.parseInt(params.get("k")) : 10;
+			int topic = params.containsKey("t") ? Integer.parseInt(params.get("t")) : 0;
+			if (k < 1 || k > MAX_K) {
+				send(exchange, 400, "k must be between 1 and " + MAX_K + ".\n", "text/plain");
+				return;
+			}
+			final String[] query = terms;
+
+			Future<List<SearchResult>> future;
+			try {
+				future = searchPool.submit(new Callable<List<SearchResult>>() {
+					@Override
+					public List<SearchResult> call() {
+						long start = System.nanoTime();
+						List<SearchResult> result = indexer.search(query, k);
+						searchTime.addAndGet(System.nanoTime() - start);
+						searches.incrementAndGet();
+						return result;
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				rejected.incrementAndGet();
+				send(exchange, 503, "Server busy.\n", "text/plain");
+				return;
+			}
+
+			try {
+				List<SearchResult> result = future.get(timeout, TimeUnit.MILLISECONDS);
+				send(exchange, 200, TRECFormater.formatResult(result, topic, listSize), "text/plain");
+			} catch (TimeoutException e) {
+				future.cancel(false);
+				timeouts.incrementAndGet();
+				send(exchange, 504, "Query timed out.\n", "text/plain");
+			}
+		} catch (NumberFormatException e) {
+			send(exchange, 400, "Invalid number: " + e.getMessage() + "\n", "text/plain");
+		} catch (InterruptedException e) {
+			errors.incrementAndGet();
+			send(exchange, 503, "Server stopping.\n", "text/plain");
+		} catch (ExecutionException e) {
+			errors.incrementAndGet();
+			logger.error("Search failed.", e.getCause());
+			send(exchange, 500, "Search failed.\n", "text/plain");
+		}
+	}
+
+	private String getStats() {
+		IndexerMetrics metrics = indexer.getMetrics();
+		long completed = searches.get();
+		return "{\"documents\": " + indexer.getNumDocs()
+				+ ", \"terms\": " + indexer.getNumTerms()
+				+ ", \"uptimeMs\": " + (System.currentTimeMillis() - startTime)
+				+ ", \"requests\": " + requests.get()
+				+ ", \"completed\": " + completed
+				+ ", \"rejected\": " + rejected.get()
+				+ ", \"timeouts\": " + timeouts.get()
+				+ ", \"errors\": " + errors.get()
+				+ ", \"activeSearches\": " + searchPool.getActiveCount()
+				+ ", \"queuedSearches\": " + searchPool.getQueue().size()
+				+ ", \"meanSearchMs\": " + String.format("%.3f", completed == 0 ? 0 : searchTime.get() / 1e6 / completed)
+				+ ", \"medianSearchMs\": " + String.format("%.3f", metrics.getMedianSearchMs())
+				+ ", \"p99SearchMs\": " + String.format("%.3f", metrics.getP99SearchMs())
+				+ ", \"queryCacheHits\": " + metrics.getQueryCacheHits()
+				+ ", \"queryCacheMisses\": " + metrics.getQueryCacheMisses()
+				+ "}\n";
+	}
+
+	private static void send(HttpExchange exchange, int status, String body, String contentType) throws IOException {
+		byte[] bytes = body.getBytes(BinaryIndex.UTF8);
+		exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		try {
+			out.write(bytes);
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * @return the body or null if it is larger than MAX_BODY
+	 */
+	private static String readBody(InputStream in) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		try {
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				if (body.size() + n > MAX_BODY) {
+					return null;
+				}
+				body.write(buffer, 0, n);
+			}
+		}
+		finally {
+			in.close();
+		}
+		return new String(body.toByteArray(), BinaryIndex.UTF8);
+	}
+
+	private static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+		Map<String, String> params = new HashMap<String, String>();
+		if (rawQuery == null) {
+			return params;
+		}
+		for (String pair : rawQuery.split("&")) {
+			int eq = pair.indexOf('=');
+			if (eq > 0) {
+				params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+			}
+		}
+		return params;
+	}
+
+}
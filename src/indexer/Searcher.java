@@ -0,0 +1,344 @@
+package indexer;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+
+/**
+ * Query evaluation on the binary index.
+ *
+ * Documents are ranked by a Scorer (by default the query likelihood using a
+ * LM with Jelinek-Mercer smoothing, in log space). The background score of
+ * the query terms is the same for every document, the rest only has to be
+ * computed for the postings of the query terms (and the prior of the
+ * document, if the model has one).
+ *
+ * The values of the model that only depend on a term (background, weight and
+ * bound) or on a document (norm and prior) are computed once when the
+ * searcher is created and kept in arrays.
+ */
+public class Searcher {
+
+	/*
+	 * Relative slack for the MaxScore threshold, the bounds and the partial
+	 * scores are summed up in different orders so they may be off by a
+	 * few ulps.
+	 */
+	private final double THRESHOLD_SLACK = 1e-9;
+
+	private BinaryIndex index;
+	private Scorer scorer;
+
+	// Per term values with the statistics of the index (null for a segment)
+	private double[] backgrounds;
+	private double[] weights;
+	private double[] bounds;
+
+	// Per document values
+	private double[] norms;
+	private double[] priors;
+	private int numDocs;
+	private int maxLength;
+	private double avgLength;
+
+	/**
+	 * Searcher with the statistics of the index
+	 *
+	 * @param index
+	 * @param scorer
+	 */
+	public Searcher(BinaryIndex index, Scorer scorer) {
+		this(index, scorer, index.getNumDocs(), (double) index.getNumTokens() / Math.max(index.getNumDocs(), 1));
+
+		int numTerms = index.getNumTerms();
+		backgrounds = new double[numTerms];
+		weights = new double[numTerms];
+		bounds = new double[numTerms];
+		for (int termId = 0; termId < numTerms; termId++) {
+			double probability = index.getCollectionProbability(termId);
+			int df = index.getDf(termId);
+			backgrounds[termId] = scorer.background(probability, df, numDocs);
+			weights[termId] = scorer.weight(probability, df, numDocs);
+			bounds[termId] = scorer.bound(weights[termId], index.getMaxTfRatio(termId), maxLength, avgLength);
+		}
+	}
+
+	/**
+	 * Searcher of a segment, the term values are computed from the
+	 * statistics of the whole collection the caller passes to search()
+	 *
+	 * @param index
+	 * @param scorer
+	 * @param numDocs - number of documents of the collection
+	 * @param avgLength - average document length of the collection
+	 */
+	public Searcher(BinaryIndex index, Scorer scorer, int numDocs, double avgLength) {
+		this.index = index;
+		this.scorer = scorer;
+		this.numDocs = numDocs;
+		this.avgLength = avgLength;
+
+		norms = new double[index.getNumDocs()];
+		priors = scorer.hasPrior() ? new double[index.getNumDocs()] : null;
+		for (int doc = 0; doc < norms.length; doc++) {
+			int length = index.getDocLength(doc);
+			maxLength = Math.max(maxLength, length);
+			norms[doc] = scorer.norm(length, avgLength);
+			if (priors != null) {
+				priors[doc] = scorer.prior(length);
+			}
+		}
+	}
+
+	public Scorer getScorer() {
+		return scorer;
+	}
+
+	/**
+	 * @param termId
+	 * @return the background score of a term
+	 */
+	public double getBackground(int termId) {
+		return backgrounds[termId];
+	}
+
+	/**
+	 * @param termId
+	 * @return the weight of a term (see Scorer.weight())
+	 */
+	public double getWeight(int termId) {
+		return weights[termId];
+	}
+
+	/**
+	 * @param doc
+	 * @return the length normalization of a document (see Scorer.norm())
+	 */
+	public double getNorm(int doc) {
+		return norms[doc];
+	}
+
+	/**
+	 * Computes the log-space score of every document (term-at-a-time) and
+	 * selects the best ones
+	 *
+	 * @param termIds - distinct query terms (sorted)
+	 * @param k - number of documents to select
+	 * @return the selected documents
+	 */
+	public TopKSelector search(int[] termIds, int k) {
+		double background = 0;
+		double[] termWeights = new double[termIds.length];
+		for (int i = 0; i < termIds.length; i++) {
+			background += backgrounds[termIds[i]];
+			termWeights[i] = weights[termIds[i]];
+		}
+		return search(termIds, termWeights, background, null, k);
+	}
+
+	/**
+	 * Term-at-a-time search with the collection statistics given by the
+	 * caller, used to search a segment with the statistics of the whole
+	 * collection
+	 *
+	 * @param termIds - query terms (in term order), -1 for terms the index
+	 *                  does not contain (they only add to the background)
+	 * @param probabilities - P(t|C) of the query terms
+	 * @param dfs - document frequencies of the query terms
+	 * @param deleted - documents that must not be selected (or null)
+	 * @param k - number of documents to select
+	 * @return the selected documents
+	 */
+	public TopKSelector search(int[] termIds, double[] probabilities, int[] dfs, BitSet deleted, int k) {
+		double background = 0;
+		double[] termWeights = new double[termIds.length];
+		for (int i = 0; i < termIds.length; i++) {
+			background += scorer.background(probabilities[i], dfs[i], numDocs);
+			termWeights[i] = scorer.weight(probabilities[i], dfs[i], numDocs);
+		}
+		return search(termIds, termWeights, background, deleted, k);
+	}
+
+	private TopKSelector search(int[] termIds, double[] termWeights, double background, BitSet deleted, int k) {
+		double[] scores = new double[index.getNumDocs()];
+		PostingsCursor postings = null;
+
+		for (int i = 0; i < termIds.length; i++) {
+			if (termIds[i] == -1) {
+				continue;
+			}
+			double weight = termWeights[i];
+			postings = index.getPostings(termIds[i], postings);
+			while (postings.next()) {
+				int doc = postings.doc();
+				scores[doc] += scorer.score(postings.tf(), norms[doc], weight);
+			}
+		}
+
+		TopKSelector selector = new TopKSelector(k);
+		for (int doc = 0; doc < scores.length; doc++) {
+			if (deleted == null || !deleted.get(doc)) {
+				selector.add(doc, score(doc, background, scores[doc], termIds.length));
+			}
+		}
+		return selector;
+	}
+
+	/**
+	 * Document-at-a-time evaluation with MaxScore pruning. Selects the same
+	 * documents (with the same scores) as search() but skips documents that
+	 * cannot get into the top k.
+	 *
+	 * The query terms are sorted by the upper bound of their contribution.
+	 * Once the top k is full, the terms with the lowest bounds whose bounds
+	 * sum up to less than the current threshold are non-essential: a document
+	 * containing only those terms cannot get into the top k, so candidates
+	 * are only taken from the postings of the essential terms and the
+	 * postings of the non-essential terms are skipped over (block by block
+	 * using the skip tables, see PostingsCursor).
+	 *
+	 * A model with a prior scores documents that contain none of the terms
+	 * differently, they can not be skipped, so such a query is evaluated by
+	 * search().
+	 *
+	 * @param termIds - distinct query terms (sorted)
+	 * @param k - number of documents to select
+	 * @param stats - collects the pruning statistics
+	 * @return the selected documents
+	 */
+	public TopKSelector searchMaxScore(final int[] termIds, int k, PruningStatistics stats) {
+		if (scorer.hasPrior()) {
+			return search(termIds, k);
+		}
+		int n = termIds.length;
+		double background = 0;
+
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			background += backgrounds[termIds[i]];
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(bounds[termIds[a]], bounds[termIds[b]]);
+			}
+		});
+
+		// Cursors in bound order, rank maps back to the position in termIds
+		int[] rank = new int[n];
+		PostingsCursor[] postings = new PostingsCursor[n];
+		double[] weight = new double[n];
+		double[] maxScore = new double[n];
+		double sum = 0;
+		for (int i = 0; i < n; i++) {
+			rank[i] = order[i];
+			postings[i] = index.getPostings(termIds[rank[i]]);
+			postings[i].next();
+			weight[i] = weights[termIds[rank[i]]];
+			sum += bounds[termIds[rank[i]]];
+			maxScore[i] = sum;
+		}
+
+		double[] contributions = new double[n];
+		int[] matched = new int[n];
+
+		TopKSelector selector = new TopKSelector(k);
+		double threshold = Double.NEGATIVE_INFINITY;
+		int firstEssential = 0;
+
+		while (true) {
+			// Next candidate is the smallest document of the essential postings
+			int doc = PostingsCursor.NO_MORE_DOCS;
+			for (int i = firstEssential; i < n; i++) {
+				doc = Math.min(doc, postings[i].doc());
+			}
+			if (doc == PostingsCursor.NO_MORE_DOCS) {
+				break;
+			}
+
+			double norm = norms[doc];
+			int numMatched = 0;
+			double score = background;
+			for (int i = firstEssential; i < n; i++) {
+				if (postings[i].doc() == doc) {
+					double c = scorer.score(postings[i].tf(), norm, weight[i]);
+					score += c;
+					contributions[rank[i]] = c;
+					matched[numMatched++] = rank[i];
+					postings[i].next();
+					stats.increasePostingsScored();
+				}
+			}
+
+			// Add the non-essential terms as long as the document can still make it
+			boolean pruned = false;
+			for (int i = firstEssential - 1; i >= 0; i--) {
+				if (score + maxScore[i] < threshold) {
+					pruned = true;
+					break;
+				}
+				int from = postings[i].position();
+				postings[i].advance(doc);
+				stats.addPostingsSkipped(postings[i].position() - from);
+				if (postings[i].doc() == doc) {
+					double c = scorer.score(postings[i].tf(), norm, weight[i]);
+					score += c;
+					contributions[rank[i]] = c;
+					matched[numMatched++] = rank[i];
+					postings[i].next();
+					stats.increasePostingsScored();
+				}
+			}
+			if (pruned) {
+				continue;
+			}
+
+			// Sum up in term order, so the score is exactly the one search() computes
+			Arrays.sort(matched, 0, numMatched);
+			double exact = 0;
+			for (int i = 0; i < numMatched; i++) {
+				exact += contributions[matched[i]];
+			}
+			selector.add(doc, background + exact);
+			stats.increaseDocsScored();
+
+			if (selector.isFull()) {
+				threshold = selector.getMinScore() - (Math.abs(selector.getMinScore()) + 1) * THRESHOLD_SLACK;
+				while (firstEssential < n && background + maxScore[firstEssential] < threshold) {
+					firstEssential++;
+				}
+			}
+		}
+
+		for (int i = 0; i < n; i++) {
+			stats.addPostingsSkipped(index.getDf(termIds[rank[i]]) - postings[i].position());
+		}
+
+		// Too few matching documents: fill up with documents that contain none of
+		// the terms, they all have the background score
+		for (int doc = index.getNumDocs() - 1; doc >= 0 && !selector.isFull(); doc--) {
+			if (!selector.contains(doc)) {
+				selector.add(doc, background);
+			}
+		}
+		return selector;
+	}
+
+	/**
+	 * Score of a document
+	 *
+	 * @param doc
+	 * @param background - background score of the query
+	 * @param sum - sum of the scores of the query terms the document contains
+	 * @param numTerms - number of query terms
+	 * @return
+	 */
+	private double score(int doc, double background, double sum, int numTerms) {
+		if (priors == null) {
+			return background + sum;
+		}
+		return background + numTerms * priors[doc] + sum;
+	}
+
+}
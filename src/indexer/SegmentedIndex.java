@@ -0,0 +1,580 @@
+package indexer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * An index that is updated incrementally: a directory of segments (binary
+ * index images) and a manifest.
+ *
+ * The manifest lists the segments and, for every document of the collection,
+ * its modification time and the segment that holds its current version. An
+ * update only indexes new and changed files into a new segment. A document
+ * of a segment is deleted if the manifest points to another segment (it has
+ * been changed) or does not contain it anymore (it has been removed), so
+ * deletions never modify a segment.
+ *
+ * The search scores the documents of all segments with the statistics of the
+ * whole collection (the collection frequencies and |C| of the live documents),
+ * the scores are the same as with a single index of the collection.
+ *
+ * Small segments and segments with many deleted documents are merged by a
+ * background thread. Searches work on an immutable snapshot of the segments,
+ * so they are not blocked by updates and merges.
+ */
+public class SegmentedIndex extends IndexDirectory {
+
+	public static final String MANIFEST = "segments";
+
+	// Segment of a document without postings (it is in no segment)
+	private static final String NO_SEGMENT = "-";
+
+	/*
+	 * Merge policy: more than MAX_SEGMENTS segments get the MERGE_FACTOR
+	 * smallest ones merged, segments with more than MAX_DELETED_RATIO deleted
+	 * documents are rewritten
+	 */
+	private static final int MAX_SEGMENTS = 8;
+	private static final int MERGE_FACTOR = 4;
+	private static final double MAX_DELETED_RATIO = 0.5;
+
+	private static Logger logger = Logger.getLogger(SegmentedIndex.class);
+
+	// Manifest
+	private boolean useStemming;
+	private int minThreshold;
+	private int maxThreshold;
+	private int nextSegment = 0;
+	private List<String> segmentNames = new ArrayList<String>();
+	private Map<String, DocEntry> docs = new HashMap<String, DocEntry>();
+
+	// Searchable state
+	private volatile Snapshot snapshot;
+	private Map<String, BinaryIndex> openSegments = new HashMap<String, BinaryIndex>();
+	private Scorer scorer = Scorer.create(Scorer.DEFAULT);
+
+	private ExecutorService merger = Executors.newSingleThreadExecutor();
+
+	/**
+	 * Manifest entry of a document, the segment is null if the document has
+	 * no postings
+	 */
+	private static class DocEntry {
+		long lastModified;
+		String segment;
+
+		DocEntry(long lastModified, String segment) {
+			this.lastModified = lastModified;
+			this.segment = segment;
+		}
+	}
+
+	/**
+	 * Segment with its deleted documents
+	 */
+	private static class Segment {
+		String name;
+		BinaryIndex index;
+		Searcher searcher;
+		BitSet deleted;
+		int numLive;
+	}
+
+	/**
+	 * Segments and collection statistics at one point in time
+	 */
+	private static class Snapshot {
+		List<Segment> segments = new ArrayList<Segment>();
+		Map<String, Long> cfs = new HashMap<String, Long>();
+		Map<String, Integer> dfs = new HashMap<String, Integer>();
+		long numTokens = 0;
+		int numDocs = 0;
+	}
+
+	private SegmentedIndex(File directory) {
+		super(directory, MANIFEST);
+	}
+
+	/**
+	 * Checks whether the given path is a segment directory
+	 *
+	 * @param path
+	 * @return
+	 */
+	public static boolean isSegmentDirectory(String path) {
+		return new File(path, MANIFEST).isFile();
+	}
+
+	/**
+	 * Opens the segments of a directory
+	 *
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	public static SegmentedIndex open(String path) throws IOException {
+		return open(path, Scorer.create(Scorer.DEFAULT));
+	}
+
+	/**
+	 * Opens the segments of a directory for searching with the given model
+	 *
+	 * @param path
+	 * @param scorer
+	 * @return
+	 * @throws IOException
+	 */
+	public static SegmentedIndex open(String path, Scorer scorer) throws IOException {
+		SegmentedIndex index = new SegmentedIndex(new File(path));
+		index.scorer = scorer;
+		index.readManifest();
+		index.refresh();
+		return index;
+	}
+
+	/**
+	 * Opens the segment directory or creates an empty one, the settings have
+	 * to be the same as the ones of the existing segments
+	 *
+	 * @param path
+	 * @param useStemming
+	 * @param minThreshold
+	 * @param maxThreshold
+	 * @return
+	 * @throws IOException
+	 */
+	public static SegmentedIndex create(String path, boolean useStemming, int minThreshold, int maxThreshold) throws IOException {
+		if (isSegmentDirectory(path)) {
+			SegmentedIndex index = open(path);
+			if (index.useStemming != useStemming || index.minThreshold != minThreshold || index.maxThreshold != maxThreshold) {
+				throw new IOException("The index in " + path + " has been created with other options (stemming "
+						+ index.useStemming + ", min " + index.minThreshold + ", max " + index.maxThreshold + ").");
+			}
+			return index;
+		}
+		File dir = new File(path);
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create index directory " + path);
+		}
+		SegmentedIndex index = new SegmentedIndex(dir);
+		index.useStemming = useStemming;
+		index.minThreshold = minThreshold;
+		index.maxThreshold = maxThreshold;
+		index.writeManifest();
+		index.refresh();
+		return index;
+	}
+
+	public boolean hasStemming() {
+		return useStemming;
+	}
+
+	public int getNumDocs() {
+		return snapshot.numDocs;
+	}
+
+	public int getNumTerms() {
+		return snapshot.cfs.size();
+	}
+
+	/**
+	 * Indexes the new and changed files of the collection into a new segment
+	 * and deletes the documents of removed files. Afterwards a merge is started
+	 * in the background if needed.
+	 *
+	 * @param collection - directory of the collection
+	 * @throws IOException
+	 */
+	public synchronized void update(String collection) throws IOException {
+		long startTime = System.currentTimeMillis();
+		List<File> files = new ArrayList<File>();
+		CollectionFiles.listFiles(new File(collection), files);
+
+		List<File> changed = new ArrayList<File>();
+		Set<String> found = new HashSet<String>();
+		for (File file : files) {
+			String docId = CollectionFiles.getDocId(file);
+			found.add(docId);
+			DocEntry entry = docs.get(docId);
+			if (entry == null || entry.lastModified != file.lastModified()) {
+				changed.add(file);
+			}
+		}
+		int removed = 0;
+		for (String docId : new ArrayList<String>(docs.keySet())) {
+			if (!found.contains(docId)) {
+				docs.remove(docId);
+				removed++;
+			}
+		}
+
+		if (!changed.isEmpty()) {
+			String name = "seg_" + (nextSegment++) + Indexer.BINARY_EXTENSION;
+			File segmentFile = new File(directory, name);
+			Indexer indexer = new Indexer();
+			indexer.buildIndex(changed, minThreshold, maxThreshold, useStemming);
+			indexer.writeIndex(segmentFile.getPath());
+
+			// Documents without postings are left out of the segment
+			BinaryIndex image = BinaryIndex.open(segmentFile.getPath());
+			Set<String> indexed = new HashSet<String>();
+			for (int doc = 0; doc < image.getNumDocs(); doc++) {
+				indexed.add(image.getDocId(doc));
+			}
+			for (File file : changed) {
+				String docId = CollectionFiles.getDocId(file);
+				docs.put(docId, new DocEntry(file.lastModified(), indexed.contains(docId) ? name : null));
+			}
+			if (image.getNumDocs() > 0) {
+				segmentNames.add(name);
+				openSegments.put(name, image);
+			}
+			else {
+				segmentFile.delete();
+			}
+		}
+
+		dropEmptySegments();
+		writeManifest();
+		refresh();
+		logger.info("Updated index: " + changed.size() + " new or changed and " + removed + " removed documents, "
+				+ segmentNames.size() + " segments (" + (System.currentTimeMillis() - startTime) + "ms)");
+
+		merger.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (mergeSegments()) {
+						// until the policy is satisfied
+					}
+				} catch (IOException e) {
+					logger.error("Merging segments failed.", e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Waits until the background merges are done
+	 */
+	public void close() {
+		merger.shutdown();
+		try {
+			merger.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Finds the k best documents of all segments
+	 *
+	 * @param terms - distinct query terms (lower cased and stemmed)
+	 * @param k
+	 * @return the documents ordered by their score (best first)
+	 */
+	public List<SearchResult> search(Collection<String> terms, int k) {
+		Snapshot snap = snapshot;
+
+		// Query terms in term order (like the term ids of a single index)
+		List<byte[]> sorted = new ArrayList<byte[]>();
+		for (String term : terms) {
+			Long cf = snap.cfs.get(term);
+			if (cf != null) {
+				sorted.add(term.getBytes(BinaryIndex.UTF8));
+			}
+		}
+		Collections.sort(sorted, BinaryIndexWriter.BYTE_ORDER);
+		List<SearchResult> result = new ArrayList<SearchResult>();
+		if (sorted.isEmpty()) {
+			return result;
+		}
+		String[] queryTerms = new String[sorted.size()];
+		double[] probabilities = new double[sorted.size()];
+		int[] dfs = new int[sorted.size()];
+		for (int i = 0; i < queryTerms.length; i++) {
+			queryTerms[i] = new String(sorted.get(i), BinaryIndex.UTF8);
+			probabilities[i] = (double) snap.cfs.get(queryTerms[i]) / snap.numTokens;
+			dfs[i] = snap.dfs.get(queryTerms[i]);
+		}
+
+		for (Segment segment : snap.segments) {
+			int[] termIds = new int[queryTerms.length];
+			for (int i = 0; i < queryTerms.length; i++) {
+				termIds[i] = segment.index.getTermId(queryTerms[i]);
+			}
+			TopKSelector selector = segment.searcher.search(termIds, probabilities, dfs, segment.deleted, k);
+			for (int i = 0; i < selector.size(); i++) {
+				result.add(new SearchResult(segment.index.getDocId(selector.getDoc(i)), selector.getScore(i)));
+			}
+		}
+
+		// Same order as within a segment
+		Collections.sort(result, SearchResult.RANKING);
+		return new ArrayList<SearchResult>(result.subList(0, Math.min(k, result.size())));
+	}
+
+	/**
+	 * Merges the live documents of all segments into one in memory image
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public BinaryIndex toBinaryIndex() throws IOException {
+		return merge(snapshot.segments);
+	}
+
+	/**
+	 * Merges the segments chosen by the merge policy
+	 *
+	 * @return false if there was nothing to merge
+	 */
+	private boolean mergeSegments() throws IOException {
+		List<Segment> toMerge = findMerge();
+		if (toMerge.isEmpty()) {
+			return false;
+		}
+		long startTime = System.currentTimeMillis();
+		String name;
+		synchronized (this) {
+			name = "seg_" + (nextSegment++) + Indexer.BINARY_EXTENSION;
+		}
+		BinaryIndex merged = merge(toMerge);
+		merged.writeTo(new File(directory, name).getPath());
+
+		synchronized (this) {
+			Set<String> mergedNames = new HashSet<String>();
+			for (Segment segment : toMerge) {
+				mergedNames.add(segment.name);
+			}
+			// Documents changed in the meantime keep pointing to their new segment
+			for (int doc = 0; doc < merged.getNumDocs(); doc++) {
+				DocEntry entry = docs.get(merged.getDocId(doc));
+				if (entry != null && mergedNames.contains(entry.segment)) {
+					entry.segment = name;
+				}
+			}
+			segmentNames.removeAll(mergedNames);
+			segmentNames.add(name);
+			dropEmptySegments();
+			writeManifest();
+			refresh();
+			for (String oldName : mergedNames) {
+				openSegments.remove(oldName);
+				new File(directory, oldName).delete();
+			}
+		}
+		logger.info("Merged " + toMerge.size() + " segments (" + merged.getNumDocs() + " documents) into " + name
+				+ " in " + (System.currentTimeMillis() - startTime) + "ms");
+		return true;
+	}
+
+	/**
+	 * Merge policy
+	 *
+	 * @return the segments to merge (or an empty list)
+	 */
+	private List<Segment> findMerge() {
+		List<Segment> segments = new ArrayList<Segment>(snapshot.segments);
+		List<Segment> toMerge = new ArrayList<Segment>();
+		for (Segment segment : segments) {
+			if (segment.deleted.cardinality() > MAX_DELETED_RATIO * segment.index.getNumDocs()) {
+				toMerge.add(segment);
+			}
+		}
+		if (segments.size() > MAX_SEGMENTS) {
+			Collections.sort(segments, new Comparator<Segment>() {
+				@Override
+				public int compare(Segment a, Segment b) {
+					return a.numLive - b.numLive;
+				}
+			});
+			for (Segment segment : segments.subList(0, MERGE_FACTOR)) {
+				if (!toMerge.contains(segment)) {
+					toMerge.add(segment);
+				}
+			}
+		}
+		return toMerge;
+	}
+
+	/**
+	 * Builds an image of the live documents of the segments from their
+	 * document vectors
+	 */
+	private BinaryIndex merge(List<Segment> segments) throws IOException {
+		Map<String, PostingList> index = new HashMap<String, PostingList>();
+		List<String> docIds = new ArrayList<String>();
+		Set<String> classes = new TreeSet<String>();
+
+		for (Segment segment : segments) {
+			BinaryIndex image = segment.index;
+			classes.addAll(image.getClasses());
+			String[] terms = new String[image.getNumTerms()];
+			for (int doc = 0; doc < image.getNumDocs(); doc++) {
+				if (segment.deleted.get(doc)) {
+					continue;
+				}
+				int ordinal = docIds.size();
+				docIds.add(image.getDocId(doc));
+				for (int i = 0; i < image.getVectorLength(doc); i++) {
+					int termId = image.getVectorTerm(doc, i);
+					if (terms[termId] == null) {
+						terms[termId] = image.getTerm(termId);
+					}
+					PostingList pList = index.get(terms[termId]);
+					if (pList == null) {
+						pList = new PostingList();
+						index.put(terms[termId], pList);
+					}
+					pList.add(ordinal, image.getVectorTf(doc, i));
+				}
+			}
+		}
+		return BinaryIndexWriter.build(index, docIds, classes, useStemming);
+	}
+
+	/**
+	 * Opens the segments of the manifest and computes the deleted documents
+	 * and the collection statistics
+	 */
+	private synchronized void refresh() throws IOException {
+		Snapshot snap = new Snapshot();
+		for (String name : segmentNames) {
+			BinaryIndex image = openSegments.get(name);
+			if (image == null) {
+				image = BinaryIndex.open(new File(directory, name).getPath());
+				openSegments.put(name, image);
+			}
+			Segment segment = new Segment();
+			segment.name = name;
+			segment.index = image;
+			segment.deleted = new BitSet(image.getNumDocs());
+
+			String[] terms = addStatistics(image, snap.cfs, snap.dfs);
+			snap.numTokens += image.getNumTokens();
+
+			// Deleted documents do not count for the collection statistics
+			for (int doc = 0; doc < image.getNumDocs(); doc++) {
+				DocEntry entry = docs.get(image.getDocId(doc));
+				if (entry != null && name.equals(entry.segment)) {
+					segment.numLive++;
+					continue;
+				}
+				segment.deleted.set(doc);
+				snap.numTokens -= image.getDocLength(doc);
+				for (int i = 0; i < image.getVectorLength(doc); i++) {
+					String term = terms[image.getVectorTerm(doc, i)];
+					snap.cfs.put(term, snap.cfs.get(term) - image.getVectorTf(doc, i));
+					snap.dfs.put(term, snap.dfs.get(term) - 1);
+				}
+			}
+			snap.numDocs += segment.numLive;
+			snap.segments.add(segment);
+		}
+		// Terms that only occur in deleted documents
+		List<String> unused = new ArrayList<String>();
+		for (Map.Entry<String, Long> entry : snap.cfs.entrySet()) {
+			if (entry.getValue() == 0) {
+				unused.add(entry.getKey());
+			}
+		}
+		for (String term : unused) {
+			snap.cfs.remove(term);
+			snap.dfs.remove(term);
+		}
+		// The models use the statistics of all segments
+		double avgLength = (double) snap.numTokens / Math.max(snap.numDocs, 1);
+		for (Segment segment : snap.segments) {
+			segment.searcher = new Searcher(segment.index, scorer, snap.numDocs, avgLength);
+		}
+		snapshot = snap;
+	}
+
+	/**
+	 * Removes the segments that have no live documents anymore
+	 */
+	private void dropEmptySegments() {
+		Set<String> used = new HashSet<String>();
+		for (DocEntry entry : docs.values()) {
+			if (entry.segment != null) {
+				used.add(entry.segment);
+			}
+		}
+		for (String name : new ArrayList<String>(segmentNames)) {
+			if (!used.contains(name)) {
+				segmentNames.remove(name);
+				openSegments.remove(name);
+				new File(directory, name).delete();
+			}
+		}
+	}
+
+	@Override
+	protected boolean readManifestEntry(String key, String value) {
+		if (key.equals("stemming")) {
+			useStemming = Boolean.parseBoolean(value);
+		}
+		else if (key.equals("min")) {
+			minThreshold = Integer.parseInt(value);
+		}
+		else if (key.equals("max")) {
+			maxThreshold = Integer.parseInt(value);
+		}
+		else if (key.equals("next")) {
+			nextSegment = Integer.parseInt(value);
+		}
+		else if (key.equals("segment")) {
+			segmentNames.add(value);
+		}
+		else if (key.equals("doc")) {
+			// Segment, modification time and docId
+			String[] fields = value.split(" ", 3);
+			if (fields.length != 3) {
+				return false;
+			}
+			docs.put(fields[2], new DocEntry(Long.parseLong(fields[1]), fields[0].equals(NO_SEGMENT) ? null : fields[0]));
+		}
+		else {
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	protected void writeManifestEntries(Writer out) throws IOException {
+		out.write("# Segments of the index, written by the indexer\n");
+		out.write("stemming " + useStemming + "\n");
+		out.write("min " + minThreshold + "\n");
+		out.write("max " + maxThreshold + "\n");
+		out.write("next " + nextSegment + "\n");
+		for (String name : segmentNames) {
+			out.write("segment " + name + "\n");
+		}
+		String[] docIds = docs.keySet().toArray(new String[docs.size()]);
+		Arrays.sort(docIds);
+		for (String docId : docIds) {
+			DocEntry entry = docs.get(docId);
+			out.write("doc " + (entry.segment == null ? NO_SEGMENT : entry.segment) + " " + entry.lastModified + " " + docId + "\n");
+		}
+	}
+
+}
@@ -0,0 +1,321 @@
+package indexer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A document partitioned index: a directory of shards (binary index images)
+ * and a manifest. Every document is in exactly one shard, chosen by the hash
+ * of its id or by its class (newsgroup), and every shard has its own
+ * postings and document vectors.
+ *
+ * The shards are searched in parallel on a fork-join pool (scatter) and their
+ * top k are merged (gather). All shards score with the statistics of the
+ * whole collection (collection frequencies, document frequencies, |C| and
+ * the average document length) that are computed when the shards are
+ * opened, so the scores are the same as with a single index.
+ */
+public class ShardedIndex extends IndexDirectory {
+
+	public static final String MANIFEST = "shards";
+
+	public static final String PARTITION_HASH = "hash";
+	public static final String PARTITION_CLASS = "class";
+
+	private static Logger logger = Logger.getLogger(ShardedIndex.class);
+
+	// Manifest
+	private boolean useStemming;
+	private String partition;
+	private List<String> shardNames = new ArrayList<String>();
+
+	// Shards and the collection statistics
+	private List<BinaryIndex> shards = new ArrayList<BinaryIndex>();
+	private List<Searcher> searchers = new ArrayList<Searcher>();
+	private Map<String, Long> cfs = new HashMap<String, Long>();
+	private Map<String, Integer> dfs = new HashMap<String, Integer>();
+	private long numTokens = 0;
+	private int numDocs = 0;
+
+	private ForkJoinPool pool;
+
+	/**
+	 * Query with the collection statistics of its terms
+	 */
+	private static class Query {
+		String[] terms;
+		double[] probabilities;
+		int[] dfs;
+		int k;
+	}
+
+	/**
+	 * Searches a range of shards, a range of more than one shard is split in
+	 * two halves that are searched in parallel and merged
+	 */
+	private class ShardSearch extends RecursiveTask<List<SearchResult>> {
+		private static final long serialVersionUID = 1L;
+
+		private Query query;
+		private int from;
+		private int to;
+
+		ShardSearch(Query query, int from, int to) {
+			this.query = query;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected List<SearchResult> compute() {
+			if (to - from == 1) {
+				return searchShard(query, from);
+			}
+			int mid = (from + to) >>> 1;
+			ShardSearch left = new ShardSearch(query, from, mid);
+			left.fork();
+			List<SearchResult> right = new ShardSearch(query, mid, to).compute();
+			return merge(left.join(), right, query.k);
+		}
+	}
+
+	private ShardedIndex(File directory) {
+		super(directory, MANIFEST);
+	}
+
+	/**
+	 * Checks whether the given path is a shard directory
+	 *
+	 * @param path
+	 * @return
+	 */
+	public static boolean isShardDirectory(String path) {
+		return new File(path, MANIFEST).isFile();
+	}
+
+	/**
+	 * Indexes the documents of a collection into shards, one index per shard
+	 * is built after the other
+	 *
+	 * @param path - shard directory
+	 * @param collection - directory of the collection
+	 * @param numShards
+	 * @param partition - PARTITION_HASH or PARTITION_CLASS
+	 * @param useStemming
+	 * @param minThreshold
+	 * @param maxThreshold
+	 * @throws IOException
+	 */
+	public static void create(String path, String collection, int numShards, String partition, boolean useStemming,
+			int minThreshold, int maxThreshold) throws IOException {
+		long startTime = System.currentTimeMillis();
+		File dir = new File(path);
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create index directory " + path);
+		}
+		List<File> files = new ArrayList<File>();
+		CollectionFiles.listFiles(new File(collection), files);
+
+		// Classes in name order, a class goes to shard (ordinal mod numShards)
+		TreeSet<String> classNames = new TreeSet<String>();
+		for (File file : files) {
+			classNames.add(CollectionFiles.getClassName(file));
+		}
+		List<String> classes = new ArrayList<String>(classNames);
+		List<List<File>> partitions = new ArrayList<List<File>>();
+		for (int shard = 0; shard < numShards; shard++) {
+			partitions.add(new ArrayList<File>());
+		}
+		for (File file : files) {
+			int shard;
+			if (partition.equals(PARTITION_CLASS)) {
+				shard = classes.indexOf(CollectionFiles.getClassName(file)) % numShards;
+			}
+			else {
+				shard = (CollectionFiles.getDocId(file).hashCode() & 0x7fffffff) % numShards;
+			}
+			partitions.get(shard).add(file);
+		}
+
+		ShardedIndex index = new ShardedIndex(dir);
+		index.useStemming = useStemming;
+		index.partition = partition;
+		for (int shard = 0; shard < numShards; shard++) {
+			if (partitions.get(shard).isEmpty()) {
+				logger.warn("Shard " + shard + " has no documents and is left out.");
+				continue;
+			}
+			String name = "shard_" + shard + Indexer.BINARY_EXTENSION;
+			Indexer indexer = new Indexer();
+			indexer.buildIndex(partitions.get(shard), minThreshold, maxThreshold, useStemming);
+			indexer.writeIndex(new File(dir, name).getPath());
+			index.shardNames.add(name);
+		}
+		index.writeManifest();
+		logger.info("Indexed " + files.size() + " documents into " + index.shardNames.size() + " shards by "
+				+ partition + " (" + (System.currentTimeMillis() - startTime) + "ms)");
+	}
+
+	/**
+	 * Opens the shards of a directory for searching with the given model
+	 *
+	 * @param path
+	 * @param scorer
+	 * @param numThreads - parallelism of the search
+	 * @return
+	 * @throws IOException
+	 */
+	public static ShardedIndex open(String path, Scorer scorer, int numThreads) throws IOException {
+		ShardedIndex index = new ShardedIndex(new File(path));
+		index.readManifest();
+		for (String name : index.shardNames) {
+			BinaryIndex shard = BinaryIndex.open(new File(index.directory, name).getPath());
+			index.shards.add(shard);
+			addStatistics(shard, index.cfs, index.dfs);
+			index.numTokens += shard.getNumTokens();
+			index.numDocs += shard.getNumDocs();
+		}
+		// The models use the statistics of all shards
+		double avgLength = (double) index.numTokens / Math.max(index.numDocs, 1);
+		for (BinaryIndex shard : index.shards) {
+			index.searchers.add(new Searcher(shard, scorer, index.numDocs, avgLength));
+		}
+		index.pool = new ForkJoinPool(numThreads);
+		return index;
+	}
+
+	public boolean hasStemming() {
+		return useStemming;
+	}
+
+	public int getNumDocs() {
+		return numDocs;
+	}
+
+	public int getNumTerms() {
+		return cfs.size();
+	}
+
+	public int getNumShards() {
+		return shards.size();
+	}
+
+	public List<String> getClasses() {
+		TreeSet<String> classes = new TreeSet<String>();
+		for (BinaryIndex shard : shards) {
+			classes.addAll(shard.getClasses());
+		}
+		return new ArrayList<String>(classes);
+	}
+
+	/**
+	 * Finds the k best documents of all shards
+	 *
+	 * @param terms - distinct query terms (lower cased and stemmed)
+	 * @param k
+	 * @return the documents ordered by their score (best first)
+	 */
+	public List<SearchResult> search(Collection<String> terms, int k) {
+		// Query terms in term order (like the term ids of a single index)
+		List<byte[]> sorted = new ArrayList<byte[]>();
+		for (String term : terms) {
+			if (cfs.containsKey(term)) {
+				sorted.add(term.getBytes(BinaryIndex.UTF8));
+			}
+		}
+		Collections.sort(sorted, BinaryIndexWriter.BYTE_ORDER);
+		if (sorted.isEmpty() || shards.isEmpty()) {
+			return new ArrayList<SearchResult>();
+		}
+		Query query = new Query();
+		query.terms = new String[sorted.size()];
+		query.probabilities = new double[sorted.size()];
+		query.dfs = new int[sorted.size()];
+		query.k = k;
+		for (int i = 0; i < query.terms.length; i++) {
+			query.terms[i] = new String(sorted.get(i), BinaryIndex.UTF8);
+			query.probabilities[i] = (double) cfs.get(query.terms[i]) / numTokens;
+			query.dfs[i] = dfs.get(query.terms[i]);
+		}
+		return pool.invoke(new ShardSearch(query, 0, shards.size()));
+	}
+
+	/**
+	 * Stops the search threads
+	 */
+	public void close() {
+		pool.shutdown();
+	}
+
+	private List<SearchResult> searchShard(Query query, int shard) {
+		BinaryIndex index = shards.get(shard);
+		int[] termIds = new int[query.terms.length];
+		for (int i = 0; i < termIds.length; i++) {
+			termIds[i] = index.getTermId(query.terms[i]);
+		}
+		TopKSelector selector = searchers.get(shard).search(termIds, query.probabilities, query.dfs, null, query.k);
+		List<SearchResult> result = new ArrayList<SearchResult>(selector.size());
+		for (int i = 0; i < selector.size(); i++) {
+			result.add(new SearchResult(index.getDocId(selector.getDoc(i)), selector.getScore(i)));
+		}
+		return result;
+	}
+
+	/**
+	 * Merges two ranked lists into the top k
+	 */
+	private static List<SearchResult> merge(List<SearchResult> a, List<SearchResult> b, int k) {
+		List<SearchResult> result = new ArrayList<SearchResult>(k);
+		int i = 0;
+		int j = 0;
+		while (result.size() < k && (i < a.size() || j < b.size())) {
+			if (j == b.size() || (i < a.size() && SearchResult.RANKING.compare(a.get(i), b.get(j)) <= 0)) {
+				result.add(a.get(i++));
+			}
+			else {
+				result.add(b.get(j++));
+			}
+		}
+		return result;
+	}
+
+	@Override
+	protected boolean readManifestEntry(String key, String value) {
+		if (key.equals("stemming")) {
+			useStemming = Boolean.parseBoolean(value);
+		}
+		else if (key.equals("partition")) {
+			partition = value;
+		}
+		else if (key.equals("shard")) {
+			shardNames.add(value);
+		}
+		else {
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	protected void writeManifestEntries(Writer out) throws IOException {
+		out.write("# Shards of the index, written by the indexer\n");
+		out.write("stemming " + useStemming + "\n");
+		out.write("partition " + partition + "\n");
+		for (String name : shardNames) {
+			out.write("shard " + name + "\n");
+		}
+	}
+
+}
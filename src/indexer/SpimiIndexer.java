@@ -0,0 +1,460 @@
+package indexer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+
+import utils.StemCache;
+
+/**
+ * Builds the index for collections that do not fit into memory (single-pass
+ * in-memory indexing, SPIMI).
+ *
+ * The documents are parsed in batches into a map output. Once its estimated
+ * size exceeds the memory budget, the block is inverted, sorted by term and
+ * written to a run file. The runs are merged term by term into the binary
+ * index image, which is written into a memory mapped file instead of the
+ * heap. Only per document and per term values (lengths, collection
+ * frequencies, the dictionary) and one posting list at a time are kept in
+ * memory while merging.
+ *
+ * Documents get their ordinals in docId order before parsing, so the blocks
+ * cover increasing ranges of ordinals and the postings of a term are sorted
+ * by concatenating them in run order.
+ */
+public class SpimiIndexer {
+
+	private static Logger logger = Logger.getLogger(SpimiIndexer.class);
+
+	/*
+	 * Maximum number of runs that are merged at once, more runs are merged
+	 * in several passes
+	 */
+	private static final int MAX_FAN_IN = 64;
+
+	/*
+	 * Documents per thread that are parsed between two checks of the budget
+	 */
+	private static final int BATCH_PER_THREAD = 8;
+
+	private long memoryBudget;
+	private int maxThreads;
+	private boolean useStemming;
+	private StemCache stemCache;
+	private int minThreshold;
+	private int maxThreshold;
+
+	private File tempDir;
+	private int numRuns = 0;
+	
+	// Documents and tokens parsed
+	private long numDocuments = 0;
+	private long numTokens = 0;
+
+	/**
+	 * Receives the merged posting list of every term in term order
+	 */
+	private interface TermHandler {
+		public void term(byte[] term, PostingList pList) throws IOException;
+	}
+
+	/**
+	 * @param memoryBudget - size of a block in bytes
+	 * @param maxThreads - number of parser threads
+	 * @param useStemming
+	 * @param stemCache - stem cache shared by the parsers
+	 * @param minThreshold
+	 * @param maxThreshold
+	 */
+	public SpimiIndexer(long memoryBudget, int maxThreads, boolean useStemming, StemCache stemCache, int minThreshold,
+			int maxThreshold) {
+		this.memoryBudget = memoryBudget;
+		this.maxThreads = maxThreads;
+		this.useStemming = useStemming;
+		this.stemCache = stemCache;
+		this.minThreshold = minThreshold;
+		this.maxThreshold = maxThreshold;
+	}
+
+	/**
+	 * Indexes the documents
+	 *
+	 * @param documents - files sorted by docId
+	 * @param docIds - docId of every file
+	 * @param classes - document classes
+	 * @return the index image (mapped from a temporary file)
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public BinaryIndex build(List<File> documents, List<String> docIds, Collection<String> classes)
+			throws IOException, InterruptedException {
+		tempDir = File.createTempFile("spimi", "");
+		tempDir.delete();
+		if (!tempDir.mkdirs()) {
+			throw new IOException("Cannot create temporary directory " + tempDir);
+		}
+		try {
+			List<File> runs = invert(documents);
+			while (runs.size() > MAX_FAN_IN) {
+				runs = mergeRuns(runs);
+			}
+			return writeImage(runs, docIds, classes);
+		}
+		finally {
+			File[] files = tempDir.listFiles();
+			if (files != null) {
+				for (File file : files) {
+					file.delete();
+				}
+			}
+			tempDir.delete();
+		}
+	}
+
+	/**
+	 * Parses the documents and writes a run whenever the budget is used up
+	 */
+	private List<File> invert(List<File> documents) throws IOException, InterruptedException {
+		List<File> runs = new ArrayList<File>();
+		ExecutorService executor = Executors.newFixedThreadPool(maxThreads);
+		try {
+			MapOutput mapOut = new MapOutput();
+			int batchSize = maxThreads * BATCH_PER_THREAD;
+			for (int start = 0; start < documents.size(); start += batchSize) {
+				int end = Math.min(start + batchSize, documents.size());
+				List<Future<?>> futures = new ArrayList<Future<?>>(end - start);
+				for (int doc = start; doc < end; doc++) {
+					futures.add(executor.submit(new Parser(documents.get(doc), doc, useStemming, stemCache, mapOut)));
+				}
+				for (Future<?> future : futures) {
+					try {
+						future.get();
+					} catch (ExecutionException e) {
+						throw new IOException("Parser failed.", e.getCause());
+					}
+				}
+				if (mapOut.getEstimatedSize() >= memoryBudget) {
+					addParsed(mapOut);
+					runs.add(writeRun(mapOut));
+					// Reuse the partitions of the pool threads, a new map
+					// output would leave the old blocks reachable from them
+					mapOut.clear();
+				}
+			}
+			addParsed(mapOut);
+			if (mapOut.getEstimatedSize() > 0) {
+				runs.add(writeRun(mapOut));
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+		return runs;
+	}
+
+	private void addParsed(MapOutput mapOut) {
+		numDocuments += mapOut.getNumDocuments();
+		numTokens += mapOut.getNumTokens();
+	}
+
+	/**
+	 * @return the number of documents parsed by build()
+	 */
+	public long getNumDocuments() {
+		return numDocuments;
+	}
+
+	/**
+	 * @return the number of tokens parsed by build()
+	 */
+	public long getNumTokens() {
+		return numTokens;
+	}
+
+	/**
+	 * Writes the block sorted by term, the postings are thresholded and sorted
+	 * by document like in the in-memory reduce phase
+	 */
+	private File writeRun(MapOutput mapOut) throws IOException {
+		long startTime = System.currentTimeMillis();
+		List<Map<String, PostingList>> partitions = mapOut.getPartitions();
+		// Part of the estimated size of the block
+		byte[][] terms = mapOut.getSortedTerms();
+
+		File run = newRunFile();
+		DataOutputStream out = openRun(run);
+		try {
+			for (byte[] term : terms) {
+				String key = new String(term, BinaryIndex.UTF8);
+				PostingList result = new PostingList();
+				for (Map<String, PostingList> partition : partitions) {
+					PostingList pList = partition.get(key);
+					if (pList == null) {
+						continue;
+					}
+					for (int j = 0; j < pList.size(); j++) {
+						int tf = pList.getTf(j);
+						if (tf < minThreshold)
+							continue;
+						if (maxThreshold != -1 && tf > maxThreshold)
+							continue;
+						result.add(pList.getDoc(j), tf);
+					}
+				}
+				result.sortByDoc();
+				if (result.size() > 0) {
+					writeTerm(out, term, result);
+				}
+			}
+		}
+		finally {
+			out.close();
+		}
+		logger.info("Wrote run " + run.getName() + " (" + terms.length + " terms, about "
+				+ (mapOut.getEstimatedSize() >> 20) + " MB) in " + (System.currentTimeMillis() - startTime) + "ms");
+		return run;
+	}
+
+	/**
+	 * Merges groups of MAX_FAN_IN consecutive runs into one run each
+	 */
+	private List<File> mergeRuns(List<File> runs) throws IOException {
+		List<File> result = new ArrayList<File>();
+		for (int start = 0; start < runs.size(); start += MAX_FAN_IN) {
+			List<File> group = runs.subList(start, Math.min(start + MAX_FAN_IN, runs.size()));
+			File run = newRunFile();
+			final DataOutputStream out = openRun(run);
+			try {
+				merge(group, new TermHandler() {
+					@Override
+					public void term(byte[] term, PostingList pList) throws IOException {
+						writeTerm(out, term, pList);
+					}
+				});
+			}
+			finally {
+				out.close();
+			}
+			for (File file : group) {
+				file.delete();
+			}
+			result.add(run);
+		}
+		logger.info("Merged " + runs.size() + " runs into " + result.size());
+		return result;
+	}
+
+	/**
+	 * Merges the runs twice: the first pass collects the document and term
+	 * statistics the layout depends on, the second one writes the postings
+	 */
+	private BinaryIndex writeImage(List<File> runs, List<String> docIds, Collection<String> classes) throws IOException {
+		long startTime = System.currentTimeMillis();
+		final int[] docLength = new int[docIds.size()];
+		final int[] vectorLength = new int[docIds.size()];
+		final List<byte[]> terms = new ArrayList<byte[]>();
+		final int[][] cfs = { new int[1024] };
+		final long[] postingsSize = new long[1];
+
+		merge(runs, new TermHandler() {
+			@Override
+			public void term(byte[] term, PostingList pList) {
+				if (terms.size() == cfs[0].length) {
+					cfs[0] = Arrays.copyOf(cfs[0], terms.size() * 2);
+				}
+				cfs[0][terms.size()] = pList.getCf();
+				terms.add(term);
+				for (int i = 0; i < pList.size(); i++) {
+					docLength[pList.getDoc(i)] += pList.getTf(i);
+					vectorLength[pList.getDoc(i)]++;
+				}
+				postingsSize[0] += BinaryIndexWriter.getPostingsSize(pList);
+			}
+		});
+
+		// Documents without postings are dropped, the others keep their order
+		final int[] ordinals = new int[docIds.size()];
+		List<String> usedIds = new ArrayList<String>();
+		for (int doc = 0; doc < docIds.size(); doc++) {
+			if (vectorLength[doc] > 0) {
+				ordinals[doc] = usedIds.size();
+				docLength[usedIds.size()] = docLength[doc];
+				vectorLength[usedIds.size()] = vectorLength[doc];
+				usedIds.add(docIds.get(doc));
+			}
+		}
+
+		final BinaryIndexWriter writer = new BinaryIndexWriter(usedIds, Arrays.copyOf(docLength, usedIds.size()),
+				Arrays.copyOf(vectorLength, usedIds.size()), terms, cfs[0], classes, postingsSize[0], useStemming);
+
+		File imageFile = File.createTempFile("index", Indexer.BINARY_EXTENSION);
+		imageFile.deleteOnExit();
+		RandomAccessFile file = new RandomAccessFile(imageFile, "rw");
+		MappedByteBuffer image;
+		try {
+			file.setLength(writer.getSize());
+			image = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, writer.getSize());
+		}
+		finally {
+			file.close();
+		}
+		writer.writeHeader(image);
+
+		merge(runs, new TermHandler() {
+			@Override
+			public void term(byte[] term, PostingList pList) {
+				PostingList remapped = new PostingList(pList.size());
+				for (int i = 0; i < pList.size(); i++) {
+					remapped.add(ordinals[pList.getDoc(i)], pList.getTf(i));
+				}
+				writer.addPostings(remapped);
+			}
+		});
+		image.force();
+		logger.info("Merged " + runs.size() + " runs into the index image in " + (System.currentTimeMillis() - startTime) + "ms");
+		// The postings size of the layout is an upper bound if documents
+		// were dropped, the image ends after the written postings like an
+		// image built in memory
+		image.clear();
+		image.limit(writer.getWrittenSize());
+		return new BinaryIndex(image.slice());
+	}
+
+	/**
+	 * k-way merge of the runs, the postings of a term are concatenated in run
+	 * order
+	 */
+	private void merge(List<File> runs, TermHandler handler) throws IOException {
+		PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(Math.max(runs.size(), 1), new Comparator<RunReader>() {
+			@Override
+			public int compare(RunReader a, RunReader b) {
+				int cmp = BinaryIndexWriter.BYTE_ORDER.compare(a.term, b.term);
+				return cmp != 0 ? cmp : a.number - b.number;
+			}
+		});
+		List<RunReader> readers = new ArrayList<RunReader>(runs.size());
+		try {
+			for (int i = 0; i < runs.size(); i++) {
+				RunReader reader = new RunReader(runs.get(i), i);
+				readers.add(reader);
+				if (reader.next()) {
+					queue.add(reader);
+				}
+			}
+			while (!queue.isEmpty()) {
+				RunReader reader = queue.poll();
+				byte[] term = reader.term;
+				PostingList pList = new PostingList(reader.df);
+				reader.readPostings(pList);
+				if (reader.next()) {
+					queue.add(reader);
+				}
+				while (!queue.isEmpty() && Arrays.equals(queue.peek().term, term)) {
+					reader = queue.poll();
+					reader.readPostings(pList);
+					if (reader.next()) {
+						queue.add(reader);
+					}
+				}
+				handler.term(term, pList);
+			}
+		}
+		finally {
+			for (RunReader reader : readers) {
+				reader.close();
+			}
+		}
+	}
+
+	private File newRunFile() {
+		return new File(tempDir, "run" + (numRuns++));
+	}
+
+	private static DataOutputStream openRun(File run) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 1 << 16));
+	}
+
+	/**
+	 * Run entry: term length, term (UTF-8), df, df * (doc, tf)
+	 */
+	private static void writeTerm(DataOutputStream out, byte[] term, PostingList pList) throws IOException {
+		out.writeShort(term.length);
+		out.write(term);
+		out.writeInt(pList.size());
+		for (int i = 0; i < pList.size(); i++) {
+			out.writeInt(pList.getDoc(i));
+			out.writeInt(pList.getTf(i));
+		}
+	}
+
+	/**
+	 * Sequential reader of a run file
+	 */
+	private static class RunReader {
+
+		private DataInputStream in;
+		private int number;
+		private byte[] term;
+		private int df;
+
+		public RunReader(File run, int number) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), 1 << 16));
+			this.number = number;
+		}
+
+		/**
+		 * Reads the next term
+		 *
+		 * @return false at the end of the run
+		 */
+		public boolean next() throws IOException {
+			int length;
+			try {
+				length = in.readUnsignedShort();
+			} catch (EOFException e) {
+				return false;
+			}
+			term = new byte[length];
+			in.readFully(term);
+			df = in.readInt();
+			return true;
+		}
+
+		/**
+		 * Appends the postings of the current term
+		 */
+		public void readPostings(PostingList pList) throws IOException {
+			for (int i = 0; i < df; i++) {
+				int doc = in.readInt();
+				pList.add(doc, in.readInt());
+			}
+		}
+
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+}
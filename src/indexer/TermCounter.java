@@ -0,0 +1,127 @@
+package indexer;
+
+import java.util.Arrays;
+
+/**
+ * Counts terms given as char slices (open addressing hash table).
+ *
+ * A String is only created the first time a term is seen, counting
+ * repeated terms does not allocate anything.
+ */
+public class TermCounter {
+
+	private String[] terms = new String[16];
+	private int[] counts = new int[16];
+	private int[] hashes = new int[16];
+	private int size = 0;
+
+	// Slots contain the index of the term + 1 (0 = empty)
+	private int[] table = new int[32];
+
+	/**
+	 * Increases the count of a term
+	 *
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 */
+	public void add(char[] buffer, int offset, int length) {
+		int hash = 0;
+		for (int i = offset; i < offset + length; i++) {
+			hash = 31 * hash + buffer[i];
+		}
+		int mask = table.length - 1;
+		int slot = mix(hash) & mask;
+		while (table[slot] != 0) {
+			int term = table[slot] - 1;
+			if (hashes[term] == hash && equals(terms[term], buffer, offset, length)) {
+				counts[term]++;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		insert(new String(buffer, offset, length), hash, slot);
+	}
+
+	/**
+	 * Increases the count of a term, the string is stored for a new term
+	 * (e.g. a cached stem, which is then shared by all documents)
+	 *
+	 * @param term
+	 */
+	public void add(String term) {
+		// String.hashCode() is the same hash as above
+		int hash = term.hashCode();
+		int mask = table.length - 1;
+		int slot = mix(hash) & mask;
+		while (table[slot] != 0) {
+			int i = table[slot] - 1;
+			if (hashes[i] == hash && terms[i].equals(term)) {
+				counts[i]++;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		insert(term, hash, slot);
+	}
+
+	private void insert(String term, int hash, int slot) {
+		if (size == terms.length) {
+			terms = Arrays.copyOf(terms, size * 2);
+			counts = Arrays.copyOf(counts, size * 2);
+			hashes = Arrays.copyOf(hashes, size * 2);
+		}
+		terms[size] = term;
+		counts[size] = 1;
+		hashes[size] = hash;
+		table[slot] = ++size;
+		if (size * 2 > table.length) {
+			rehash();
+		}
+	}
+
+	/**
+	 * @return number of distinct terms
+	 */
+	public int size() {
+		return size;
+	}
+
+	public String getTerm(int i) {
+		return terms[i];
+	}
+
+	public int getCount(int i) {
+		return counts[i];
+	}
+
+	private void rehash() {
+		table = new int[table.length * 2];
+		int mask = table.length - 1;
+		for (int term = 0; term < size; term++) {
+			int slot = mix(hashes[term]) & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = term + 1;
+		}
+	}
+
+	private static int mix(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	private static boolean equals(String term, char[] buffer, int offset, int length) {
+		if (term.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (term.charAt(i) != buffer[offset + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
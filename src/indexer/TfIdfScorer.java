@@ -0,0 +1,35 @@
+package indexer;
+
+/**
+ * TF-IDF with logarithmic term frequencies and no length normalization:
+ *
+ * score(d) = sum_{t in d} (1 + log(tf)) * log(N / df)
+ */
+public class TfIdfScorer extends Scorer {
+
+	@Override
+	public double background(double probability, int df, int numDocs) {
+		return 0;
+	}
+
+	@Override
+	public double weight(double probability, int df, int numDocs) {
+		return Math.log((double) numDocs / df);
+	}
+
+	@Override
+	public double norm(int length, double avgLength) {
+		return 1;
+	}
+
+	@Override
+	public double score(int tf, double norm, double weight) {
+		return (1 + Math.log(tf)) * weight;
+	}
+
+	@Override
+	public double bound(double weight, double maxTfRatio, int maxLength, double avgLength) {
+		return (1 + Math.log(Math.max(1, maxTfRatio * maxLength))) * weight;
+	}
+
+}
@@ -1,46 +1,224 @@
 package indexer;
 
-import java.io.BufferedReader;
-import java.io.DataInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
 
+/**
+ * Streaming tokenizer for newsgroup posts.
+ *
+ * The file is read once through a reusable char buffer. Of the header only
+ * the subject (without a leading "Re:") is used, the header ends with the
+ * first blank line. Tokens are the runs of word characters ([a-zA-Z0-9_]),
+ * they are passed to a TokenHandler as slices of the buffer.
+ */
 public class Tokenizer {
-	
-	private String buffer;
-	
-	public Tokenizer(String filename) throws IOException {
-			FileInputStream fstream = new FileInputStream(filename);
-			DataInputStream in = new DataInputStream(fstream);
-			BufferedReader br = new BufferedReader(new InputStreamReader(in));
-			String line = null;
-			boolean headerDone = false;
-			buffer = "";
-			while((line = br.readLine()) != null) {
-				if (!headerDone) {
-					if (line.startsWith("Subject:")) {
-						String[] tmp = line.split("Subject:");
-						if (tmp[1].trim().startsWith("Re:")) {
-							buffer += tmp[1].trim().substring(4).trim() + " ";
-						}
-						else {
-							buffer += tmp[1].trim() + " ";
-						}
-					}
-					if (line.trim().equals("")) {
-						headerDone = true;
-					}
+
+	/**
+	 * Receives the tokens, the slice is only valid during the call
+	 */
+	public interface TokenHandler {
+		public void token(char[] buffer, int offset, int length);
+	}
+
+	private static final char[] SUBJECT = "Subject:".toCharArray();
+	private static final char[] REPLY = "Re:".toCharArray();
+
+	private char[] buffer = new char[8192];
+
+	/**
+	 * Tokenizes a file
+	 *
+	 * @param filename
+	 * @param handler
+	 * @throws IOException
+	 */
+	public void tokenize(String filename, TokenHandler handler) throws IOException {
+		Reader reader = new InputStreamReader(new FileInputStream(filename));
+		try {
+			tokenize(reader, handler);
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Tokenizes a post
+	 *
+	 * @param reader
+	 * @param handler
+	 * @throws IOException
+	 */
+	public void tokenize(Reader reader, TokenHandler handler) throws IOException {
+		int pos = 0;
+		int limit = 0;
+		// Start of the current header line or token (-1 if none)
+		int mark = 0;
+		boolean headerDone = false;
+		boolean skipLF = false;
+
+		while (true) {
+			if (pos == limit) {
+				// Keep the current line / token and refill the buffer
+				int keep = mark >= 0 ? limit - mark : 0;
+				if (keep == buffer.length) {
+					buffer = Arrays.copyOf(buffer, buffer.length * 2);
+				}
+				else if (keep > 0) {
+					System.arraycopy(buffer, mark, buffer, 0, keep);
+				}
+				if (mark >= 0) {
+					mark = 0;
+				}
+				pos = keep;
+				limit = keep;
+				int n = reader.read(buffer, limit, buffer.length - limit);
+				if (n == -1) {
+					break;
+				}
+				limit += n;
+			}
+
+			char c = buffer[pos];
+			if (!headerDone) {
+				if (skipLF && c == '\n') {
+					mark = ++pos;
+				}
+				else if (c == '\n' || c == '\r') {
+					headerDone = headerLine(mark, pos, handler);
+					skipLF = c == '\r';
+					mark = headerDone ? -1 : pos + 1;
+					pos++;
 				}
 				else {
-					buffer += line;
+					skipLF = false;
+					pos++;
 				}
 			}
-			br.close();
+			else if (isWordChar(c)) {
+				if (mark < 0) {
+					mark = pos;
+				}
+				pos++;
+			}
+			else {
+				if (mark >= 0) {
+					handler.token(buffer, mark, pos - mark);
+					mark = -1;
+				}
+				pos++;
+			}
+		}
+
+		if (mark >= 0 && pos > mark) {
+			if (headerDone) {
+				handler.token(buffer, mark, pos - mark);
+			}
+			else {
+				headerLine(mark, pos, handler);
+			}
+		}
+	}
+
+	/**
+	 * Returns all tokens of a file as strings (used for queries)
+	 *
+	 * @param filename
+	 * @return
+	 * @throws IOException
+	 */
+	public String[] getTokens(String filename) throws IOException {
+		Reader reader = new InputStreamReader(new FileInputStream(filename));
+		try {
+			return getTokens(reader);
+		}
+		finally {
+			reader.close();
+		}
 	}
-	
-	public String[] getTokens() {
-		//TODO: be smarter?
-		return buffer.split("\\W+");
+
+	/**
+	 * Returns all tokens of a post as strings
+	 *
+	 * @param reader
+	 * @return
+	 * @throws IOException
+	 */
+	public String[] getTokens(Reader reader) throws IOException {
+		final ArrayList<String> tokens = new ArrayList<String>();
+		tokenize(reader, new TokenHandler() {
+			@Override
+			public void token(char[] buffer, int offset, int length) {
+				tokens.add(new String(buffer, offset, length));
+			}
+		});
+		return tokens.toArray(new String[tokens.size()]);
+	}
+
+	/**
+	 * Handles a header line, only the subject gets tokenized
+	 *
+	 * @return true if this was the blank line that ends the header
+	 */
+	private boolean headerLine(int start, int end, TokenHandler handler) {
+		boolean blank = true;
+		for (int i = start; i < end && blank; i++) {
+			blank = buffer[i] <= ' ';
+		}
+		if (blank) {
+			return true;
+		}
+		if (startsWith(start, end, SUBJECT)) {
+			start = skipSpaces(start + SUBJECT.length, end);
+			if (startsWith(start, end, REPLY)) {
+				start += REPLY.length;
+			}
+			int tokenStart = -1;
+			for (int i = start; i < end; i++) {
+				if (isWordChar(buffer[i])) {
+					if (tokenStart < 0) {
+						tokenStart = i;
+					}
+				}
+				else if (tokenStart >= 0) {
+					handler.token(buffer, tokenStart, i - tokenStart);
+					tokenStart = -1;
+				}
+			}
+			if (tokenStart >= 0) {
+				handler.token(buffer, tokenStart, end - tokenStart);
+			}
+		}
+		return false;
+	}
+
+	private boolean startsWith(int start, int end, char[] prefix) {
+		if (end - start < prefix.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (buffer[start + i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int skipSpaces(int start, int end) {
+		while (start < end && buffer[start] <= ' ') {
+			start++;
+		}
+		return start;
+	}
+
+	/**
+	 * Same characters as \w in Java regular expressions
+	 */
+	private static boolean isWordChar(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
 	}
 }
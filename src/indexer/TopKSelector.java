@@ -0,0 +1,155 @@
+package indexer;
+
+/**
+ * Selects the k best scored documents using a min-heap on primitive arrays.
+ *
+ * Ties are broken by the document ordinal (the higher ordinal wins), which
+ * is the same as comparing the document ids because the ordinals are
+ * assigned in docId order.
+ */
+public class TopKSelector {
+
+	private int[] docs;
+	private double[] scores;
+	private int size = 0;
+	private boolean sorted = false;
+
+	public TopKSelector(int k) {
+		docs = new int[k];
+		scores = new double[k];
+	}
+
+	/**
+	 * Offers a candidate document
+	 *
+	 * @param doc
+	 * @param score
+	 */
+	public void add(int doc, double score) {
+		if (size < docs.length) {
+			docs[size] = doc;
+			scores[size] = score;
+			siftUp(size++);
+		}
+		else if (size > 0 && !worse(doc, score, docs[0], scores[0])) {
+			docs[0] = doc;
+			scores[0] = score;
+			siftDown(0, size);
+		}
+	}
+
+	/**
+	 * @return true once k documents have been selected
+	 */
+	public boolean isFull() {
+		return size == docs.length;
+	}
+
+	/**
+	 * Returns the score of the worst selected document, a candidate has to
+	 * be at least as good to get selected
+	 *
+	 * @return
+	 */
+	public double getMinScore() {
+		return size == 0 ? Double.NEGATIVE_INFINITY : scores[0];
+	}
+
+	/**
+	 * Checks whether a document has been selected (linear scan)
+	 *
+	 * @param doc
+	 * @return
+	 */
+	public boolean contains(int doc) {
+		for (int i = 0; i < size; i++) {
+			if (docs[i] == doc) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the ordinal of the i-th best document
+	 *
+	 * @param i
+	 * @return
+	 */
+	public int getDoc(int i) {
+		sort();
+		return docs[i];
+	}
+
+	/**
+	 * Returns the score of the i-th best document
+	 *
+	 * @param i
+	 * @return
+	 */
+	public double getScore(int i) {
+		sort();
+		return scores[i];
+	}
+
+	/**
+	 * Heap sort, the best document ends up first. No more documents can be
+	 * added afterwards.
+	 */
+	private void sort() {
+		if (sorted) {
+			return;
+		}
+		for (int end = size - 1; end > 0; end--) {
+			swap(0, end);
+			siftDown(0, end);
+		}
+		sorted = true;
+	}
+
+	private static boolean worse(int docA, double scoreA, int docB, double scoreB) {
+		return scoreA < scoreB || (scoreA == scoreB && docA < docB);
+	}
+
+	private void siftUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (!worse(docs[i], scores[i], docs[parent], scores[parent])) {
+				break;
+			}
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i, int end) {
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= end) {
+				break;
+			}
+			if (child + 1 < end && worse(docs[child + 1], scores[child + 1], docs[child], scores[child])) {
+				child++;
+			}
+			if (!worse(docs[child], scores[child], docs[i], scores[i])) {
+				break;
+			}
+			swap(i, child);
+			i = child;
+		}
+	}
+
+	private void swap(int i, int j) {
+		int doc = docs[i];
+		docs[i] = docs[j];
+		docs[j] = doc;
+		double score = scores[i];
+		scores[i] = scores[j];
+		scores[j] = score;
+	}
+
+}
@@ -1,15 +1,39 @@
 package utils;
 
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.util.zip.GZIPOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+/**
+ * Writes a sparse ARFF file as a block compressed gzip file (see BlockGzip).
+ * The rows are collected into blocks of about BLOCK_SIZE characters that are
+ * compressed by a thread pool and written in order. Blocks end at the end of
+ * a row and the data section starts a new block, so a reader can parse the
+ * blocks of the data section independently.
+ */
 public class ARFFWriter {
 	
-	private BufferedWriter writer;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private static final int BLOCK_SIZE = 256 * 1024;
+	
+	// Compressed blocks per thread that may wait to be written
+	private static final int PENDING_PER_THREAD = 2;
+	
+	private OutputStream out;
+	private StringBuilder block = new StringBuilder(BLOCK_SIZE + 1024);
+	private ExecutorService executor;
+	private ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+	private int maxPending;
 	
 	/**
 	 * Writes a new (sparse) ARFF file
@@ -19,9 +43,22 @@ public class ARFFWriter {
 	 * @throws IOException
 	 */
 	public ARFFWriter(String filename, String name) throws IOException {
-		GZIPOutputStream gzout = new GZIPOutputStream(new FileOutputStream(new File(filename)));
-		writer = new BufferedWriter(new OutputStreamWriter(gzout));
-		writer.append("@RELATION " + name + "\n\n");
+		this(filename, name, 1);
+	}
+	
+	/**
+	 * Writes a new (sparse) ARFF file
+	 * 
+	 * @param filename
+	 * @param name
+	 * @param maxThreads - number of threads compressing the blocks
+	 * @throws IOException
+	 */
+	public ARFFWriter(String filename, String name, int maxThreads) throws IOException {
+		out = new BufferedOutputStream(new FileOutputStream(new File(filename)));
+		executor = Executors.newFixedThreadPool(maxThreads);
+		maxPending = PENDING_PER_THREAD * maxThreads;
+		block.append("@RELATION " + name + "\n\n");
 	}
 	
 	/**
@@ -32,7 +69,7 @@ public class ARFFWriter {
 	 * @throws IOException
 	 */
 	public void addAttribute(String name, String type) throws IOException {
-		writer.append("@ATTRIBUTE \"" + name + "\" " + type + "\n");
+		block.append("@ATTRIBUTE \"" + name + "\" " + type + "\n");
 	}
 	
 	/**
@@ -41,7 +78,8 @@ public class ARFFWriter {
 	 * @throws IOException
 	 */
 	public void beginData() throws IOException {
-		writer.append("@DATA\n");
+		block.append("@DATA\n");
+		flushBlock();
 	}
 	
 	/**
@@ -49,7 +87,7 @@ public class ARFFWriter {
 	 * @throws IOException
 	 */
 	public void startRow() throws IOException {
-		writer.append("{");
+		block.append("{");
 	}
 	
 	/**
@@ -62,10 +100,10 @@ public class ARFFWriter {
 	 */
 	public void addDoubleValue(boolean first, int index, double value) throws IOException {
 		if (first) {
-			writer.append(index + " " + value);
+			block.append(index + " " + value);
 		}
 		else {
-			writer.append(", " + index + " " + value);
+			block.append(", " + index + " " + value);
 		}
 	}
 	
@@ -79,10 +117,10 @@ public class ARFFWriter {
 	 */
 	public void addStringValue(boolean first, int index, String value) throws IOException {
 		if (first) {
-			writer.append(index + " \"" + value + "\"");
+			block.append(index + " \"" + value + "\"");
 		}
 		else {
-			writer.append(", " + index + " \"" + value + "\"");
+			block.append(", " + index + " \"" + value + "\"");
 		}
 	}
 	
@@ -96,10 +134,10 @@ public class ARFFWriter {
 	 */
 	public void addConstantValue(boolean first, int index, String value) throws IOException {
 		if (first) {
-			writer.append(index + " " + value);
+			block.append(index + " " + value);
 		}
 		else {
-			writer.append(", " + index + " " + value);
+			block.append(", " + index + " " + value);
 		}
 	}
 	
@@ -113,10 +151,10 @@ public class ARFFWriter {
 	 */
 	public void addNumericValue(boolean first, int index, int value) throws IOException {
 		if (first) {
-			writer.append(index + " " + value);
+			block.append(index + " " + value);
 		}
 		else {
-			writer.append(", " + index + " " + value);
+			block.append(", " + index + " " + value);
 		}
 	}	
 	
@@ -126,7 +164,10 @@ public class ARFFWriter {
 	 * @throws IOException
 	 */
 	public void endRow() throws IOException {
-		writer.append("}\n");	
+		block.append("}\n");
+		if (block.length() >= BLOCK_SIZE) {
+			flushBlock();
+		}
 	}
 	
 	/**
@@ -135,7 +176,54 @@ public class ARFFWriter {
 	 * @throws IOException
 	 */
 	public void close() throws IOException {
-		writer.close();
+		try {
+			flushBlock();
+			while (!pending.isEmpty()) {
+				writeBlock();
+			}
+			out.close();
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Hands the current block to the compression threads, waits for the
+	 * oldest blocks if too many are pending
+	 * 
+	 * @throws IOException
+	 */
+	private void flushBlock() throws IOException {
+		if (block.length() == 0) {
+			return;
+		}
+		final byte[] data = block.toString().getBytes(UTF8);
+		block.setLength(0);
+		pending.add(executor.submit(new Callable<byte[]>() {
+			@Override
+			public byte[] call() {
+				return BlockGzip.compress(data, data.length);
+			}
+		}));
+		while (pending.size() > maxPending) {
+			writeBlock();
+		}
+	}
+	
+	/**
+	 * Writes the oldest compressed block
+	 * 
+	 * @throws IOException
+	 */
+	private void writeBlock() throws IOException {
+		try {
+			out.write(pending.poll().get());
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while compressing the ARFF file.", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Cannot compress the ARFF file.", e.getCause());
+		}
 	}
 	
 }
@@ -0,0 +1,177 @@
+package utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Block compressed gzip files (like BGZF): the data is split into blocks that
+ * are compressed as independent gzip members, so the blocks can be
+ * compressed and decompressed in parallel. Every member header has an extra
+ * field with the compressed size of the member, so the members of a file can
+ * be found by reading the headers only:
+ *
+ * header  : 1f 8b 08 04, mtime 0, xfl 0, os ff, xlen 8, 'I' 'X', 4, member size
+ * data    : raw deflate stream
+ * trailer : CRC32, uncompressed size
+ *
+ * The concatenated members are a valid gzip file, any gzip tool (and
+ * GZIPInputStream) reads them as a whole.
+ */
+public class BlockGzip {
+
+	private static final int HEADER_SIZE = 20;
+	private static final int TRAILER_SIZE = 8;
+
+	private static final byte[] HEADER = { 0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 8, 0, 'I', 'X', 4, 0 };
+
+	/**
+	 * Compresses a block into a gzip member
+	 *
+	 * @param data
+	 * @param length - number of bytes of data
+	 * @return the member
+	 */
+	public static byte[] compress(byte[] data, int length) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(length / 4 + HEADER_SIZE + TRAILER_SIZE);
+		out.write(HEADER, 0, HEADER.length);
+		out.write(new byte[4], 0, 4); // member size, set below
+
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		try {
+			deflater.setInput(data, 0, length);
+			deflater.finish();
+			byte[] buffer = new byte[64 * 1024];
+			while (!deflater.finished()) {
+				int n = deflater.deflate(buffer);
+				out.write(buffer, 0, n);
+			}
+		}
+		finally {
+			deflater.end();
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, length);
+		ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		trailer.putInt((int) crc.getValue());
+		trailer.putInt(length);
+		out.write(trailer.array(), 0, TRAILER_SIZE);
+
+		byte[] member = out.toByteArray();
+		ByteBuffer.wrap(member).order(ByteOrder.LITTLE_ENDIAN).putInt(HEADER.length, member.length);
+		return member;
+	}
+
+	/**
+	 * Finds the members of a block compressed file
+	 *
+	 * @param file
+	 * @return the offsets of the members followed by the file size, or null
+	 *         if the file is not block compressed (e.g. a plain gzip file)
+	 * @throws IOException
+	 */
+	public static long[] getMembers(RandomAccessFile file) throws IOException {
+		long[] offsets = new long[16];
+		int numMembers = 0;
+		long offset = 0;
+		long size = file.length();
+		byte[] header = new byte[HEADER_SIZE];
+		while (offset < size) {
+			if (offset + HEADER_SIZE + TRAILER_SIZE > size) {
+				return null;
+			}
+			file.seek(offset);
+			file.readFully(header);
+			int memberSize = getMemberSize(header);
+			if (memberSize < HEADER_SIZE + TRAILER_SIZE || offset + memberSize > size) {
+				return null;
+			}
+			if (numMembers + 1 == offsets.length) {
+				offsets = Arrays.copyOf(offsets, offsets.length * 2);
+			}
+			offsets[numMembers++] = offset;
+			offset += memberSize;
+		}
+		if (numMembers == 0) {
+			return null;
+		}
+		offsets[numMembers] = size;
+		return Arrays.copyOf(offsets, numMembers + 1);
+	}
+
+	/**
+	 * Reads and decompresses a member, the file channel is read with
+	 * absolute positions so several threads can share it
+	 *
+	 * @param channel
+	 * @param offset - offset of the member
+	 * @param size - compressed size of the member
+	 * @return the uncompressed block
+	 * @throws IOException if the member is corrupt
+	 */
+	public static byte[] decompress(FileChannel channel, long offset, int size) throws IOException {
+		ByteBuffer member = ByteBuffer.allocate(size);
+		while (member.hasRemaining()) {
+			if (channel.read(member, offset + member.position()) < 0) {
+				throw new ZipException("Unexpected end of block compressed file.");
+			}
+		}
+		member.order(ByteOrder.LITTLE_ENDIAN);
+		int crc = member.getInt(size - TRAILER_SIZE);
+		int length = member.getInt(size - 4);
+
+		byte[] data = new byte[length];
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(member.array(), HEADER_SIZE, size - HEADER_SIZE - TRAILER_SIZE);
+			int n = 0;
+			while (n < length && !inflater.finished()) {
+				int inflated = inflater.inflate(data, n, length - n);
+				if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				n += inflated;
+			}
+			if (n != length || !inflater.finished()) {
+				throw new ZipException("Corrupt gzip member at offset " + offset + ".");
+			}
+		} catch (DataFormatException e) {
+			throw new ZipException("Corrupt gzip member at offset " + offset + ": " + e.getMessage());
+		}
+		finally {
+			inflater.end();
+		}
+
+		CRC32 check = new CRC32();
+		check.update(data, 0, length);
+		if ((int) check.getValue() != crc) {
+			throw new ZipException("CRC mismatch in gzip member at offset " + offset + ".");
+		}
+		return data;
+	}
+
+	/**
+	 * @return the member size stored in the header, or -1 if the header is
+	 *         not the one written by compress()
+	 */
+	private static int getMemberSize(byte[] header) {
+		for (int i = 0; i < HEADER.length; i++) {
+			// mtime, xfl and os are not checked
+			if ((i < 4 || i >= 10) && header[i] != HEADER[i]) {
+				return -1;
+			}
+		}
+		return ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN).getInt(HEADER.length);
+	}
+
+}
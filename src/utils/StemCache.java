@@ -0,0 +1,173 @@
+package utils;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of stems, shared by all parser threads and the query path.
+ *
+ * The vocabulary of a collection is small compared to the number of tokens,
+ * so most words have been stemmed before. The cache maps the lower case word
+ * (given as a char slice, so a hit does not allocate anything) to its stem.
+ * It is a direct mapped table: a word can only be stored in one slot and
+ * replaces the word that was there before. Entries are immutable and the
+ * slots are written without locking; a thread may miss an entry that was
+ * just stored by another thread and stem the word again, which is harmless.
+ *
+ * Callers count their lookups and misses and add them with addStatistics(),
+ * so the threads do not contend on shared counters for every token.
+ */
+public class StemCache {
+
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+
+	private static class Entry {
+		final char[] word;
+		final int hash;
+		final String stem;
+
+		Entry(char[] word, int hash, String stem) {
+			this.word = word;
+			this.hash = hash;
+			this.stem = stem;
+		}
+	}
+
+	private final Entry[] table;
+	private final AtomicLong lookups = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param capacity - number of entries (rounded up to a power of 2)
+	 */
+	public StemCache(int capacity) {
+		int size = Integer.highestOneBit(Math.max(capacity, 1) - 1) << 1;
+		table = new Entry[Math.max(size, 1)];
+	}
+
+	/**
+	 * Returns the cached stem of a word
+	 *
+	 * @param word - lower case word
+	 * @param length
+	 * @return the stem or null if the word is not cached
+	 */
+	public String get(char[] word, int length) {
+		int hash = hash(word, length);
+		Entry entry = table[mix(hash) & (table.length - 1)];
+		if (entry != null && entry.hash == hash && equals(entry.word, word, length)) {
+			return entry.stem;
+		}
+		return null;
+	}
+
+	/**
+	 * Stems a word and caches the stem
+	 *
+	 * @param word - lower case word
+	 * @param length
+	 * @param stemmer - stemmer of the calling thread
+	 * @return the stem
+	 */
+	public String stem(char[] word, int length, Stemmer stemmer) {
+		stemmer.add(word, length);
+		stemmer.stem();
+		String stem = stemmer.toString();
+		int hash = hash(word, length);
+		table[mix(hash) & (table.length - 1)] = new Entry(Arrays.copyOf(word, length), hash, stem);
+		return stem;
+	}
+
+	/**
+	 * Returns the stem of a word, from the cache if possible
+	 *
+	 * @param word - lower case word
+	 * @param stemmer - stemmer of the calling thread
+	 * @return
+	 */
+	public String stem(String word, Stemmer stemmer) {
+		char[] chars = word.toCharArray();
+		String stem = get(chars, chars.length);
+		boolean miss = stem == null;
+		if (miss) {
+			stem = stem(chars, chars.length, stemmer);
+		}
+		addStatistics(1, miss ? 1 : 0);
+		return stem;
+	}
+
+	/**
+	 * Adds the lookups of a caller to the hit rate
+	 *
+	 * @param lookups
+	 * @param misses
+	 */
+	public void addStatistics(long lookups, long misses) {
+		this.lookups.addAndGet(lookups);
+		this.misses.addAndGet(misses);
+	}
+
+	public long getLookups() {
+		return lookups.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return hits / lookups (0 if there have been no lookups)
+	 */
+	public double getHitRate() {
+		long n = lookups.get();
+		return n == 0 ? 0 : (double) (n - misses.get()) / n;
+	}
+
+	public int getCapacity() {
+		return table.length;
+	}
+
+	/**
+	 * @return the number of used entries
+	 */
+	public int getSize() {
+		int size = 0;
+		for (Entry entry : table) {
+			if (entry != null) {
+				size++;
+			}
+		}
+		return size;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d lookups, %.1f%% hits, %d of %d entries used", getLookups(), 100 * getHitRate(),
+				getSize(), getCapacity());
+	}
+
+	private static int hash(char[] word, int length) {
+		int hash = 0;
+		for (int i = 0; i < length; i++) {
+			hash = 31 * hash + word[i];
+		}
+		return hash;
+	}
+
+	private static int mix(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	private static boolean equals(char[] a, char[] b, int length) {
+		if (a.length != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (a[i] != b[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -4,11 +4,12 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.text.DecimalFormat;
-import java.util.Map;
+import java.util.List;
 
 import org.apache.log4j.Logger;
 
 import args.ArgumentValidator;
+import indexer.SearchResult;
 
 public class TRECFormater {
 
@@ -21,38 +22,49 @@ public class TRECFormater {
 		 * 
 		 * @param result
 		 * @param validator
-		 * @param limit
 		 */
-		public static void printResult(Map<String, Double> result, ArgumentValidator validator, int limit) {
+		public static void printResult(List<SearchResult> result, ArgumentValidator validator) {
+			printResult(result, validator.getTopicNumber(), validator.getListSize(), validator.getSearchOut());
+		}
+
+		/**
+		 * Prints output TREC file to stdout or writes it to a file if searchOut
+		 * is set.
+		 * 
+		 * @param result
+		 * @param topicNumber
+		 * @param listSize
+		 * @param searchOut - output file (or null)
+		 */
+		public static void printResult(List<SearchResult> result, int topicNumber, String listSize, String searchOut) {
 			try {
 				FileWriter fstream = null;
 				BufferedWriter out = null;
-				boolean writeToFile = validator.getSearchOut() == null ? false : true; 
+				boolean writeToFile = searchOut == null ? false : true; 
 				
 				// Create file 
 				if (writeToFile) {
-					fstream = new FileWriter(new File(validator.getSearchOut()));
+					fstream = new FileWriter(new File(searchOut));
 					out = new BufferedWriter(fstream);
 				}
 				
-				DecimalFormat df = new DecimalFormat("0.##E0");
+				// Scores are log probabilities, keep enough digits to tell them apart
+				DecimalFormat df = new DecimalFormat("0.####");
 				//df.setMaximumFractionDigits(2);
 
-				int i = 0;
-				for (String doc : result.keySet()) {
-					if (i == limit)
-						break;
-					if (writeToFile) {
-						out.write("topic" + validator.getTopicNumber() + " Q0 " + doc + " " + (i+1) + " " + df.format(result.get(doc)) + " group1_" + validator.getListSize()+"\n");
-					}
-					else {
-						System.out.printf("topic%d Q0 %s %d %s groupA_%s\n", validator.getTopicNumber(), doc, i + 1, df.format(result.get(doc)), validator.getListSize());
+				if (writeToFile) {
+					out.write(formatResult(result, topicNumber, listSize));
+				}
+				else {
+					int i = 0;
+					for (SearchResult doc : result) {
+						System.out.printf("topic%d Q0 %s %d %s groupA_%s\n", topicNumber, doc.getDocId(), i + 1, df.format(doc.getScore()), listSize);
+						i++;
 					}
-					i++;
 				}
 				if (writeToFile) {
 					out.close();
-					logger.info("Wrote search results to " + validator.getSearchOut());
+					logger.info("Wrote search results to " + searchOut);
 				}
 				
 			}
@@ -60,5 +72,24 @@ public class TRECFormater {
 				logger.error("Search failed :/", e);
 			}
 		}
+
+		/**
+		 * Formats the result as the lines of a TREC file
+		 * 
+		 * @param result
+		 * @param topicNumber
+		 * @param listSize
+		 * @return
+		 */
+		public static String formatResult(List<SearchResult> result, int topicNumber, String listSize) {
+			DecimalFormat df = new DecimalFormat("0.####");
+			StringBuilder out = new StringBuilder();
+			int i = 0;
+			for (SearchResult doc : result) {
+				out.append("topic" + topicNumber + " Q0 " + doc.getDocId() + " " + (i+1) + " " + df.format(doc.getScore()) + " group1_" + listSize+"\n");
+				i++;
+			}
+			return out.toString();
+		}
 }
 